@@ -0,0 +1,52 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build a whole tree with STR packing
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkLoadBenchmark {
+
+    @Param
+    Dataset dataset;
+
+    @Param({"100000"})
+    int entryCount;
+
+    List<RTreeEntry<Integer>> entries;
+
+    @Setup
+    public void setup() {
+        entries = dataset.entries(entryCount, 1);
+    }
+
+    @Benchmark
+    public RTree<Integer> bulkLoad() {
+        return RTree.bulkLoad(entries, 6, 16, new RStarStrategy());
+    }
+
+    @Benchmark
+    public RTree<Integer> bulkLoadParallel() {
+        return RTree.bulkLoadParallel(entries, 6, 16, new RStarStrategy());
+    }
+
+}
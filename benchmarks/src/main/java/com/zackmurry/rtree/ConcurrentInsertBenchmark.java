@@ -0,0 +1,86 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput of ConcurrentRTree with 1, 2, 4 and 8 writer threads, reported as total inserts per second across
+ * all threads. Scaling only shows on a machine with at least as many cores as threads; with fewer, the extra threads
+ * just take turns.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConcurrentInsertBenchmark {
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        // Start each thread on a different part of the data so that they don't all insert the same entries
+        @Setup
+        public void setup(ThreadParams params) {
+            next = params.getThreadIndex() * (InsertBenchmark.ENTRIES / params.getThreadCount());
+        }
+    }
+
+    List<RTreeEntry<Integer>> entries;
+    ConcurrentRTree<Integer> tree;
+
+    @Setup
+    public void setup() {
+        entries = Dataset.UNIFORM.entries(InsertBenchmark.ENTRIES, 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void newTree() {
+        tree = new ConcurrentRTree<>(6, 16, new RStarStrategy());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Cursor cursor) {
+        insert(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads2(Cursor cursor) {
+        insert(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4(Cursor cursor) {
+        insert(cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(Cursor cursor) {
+        insert(cursor);
+    }
+
+    private void insert(Cursor cursor) {
+        RTreeEntry<Integer> entry = entries.get(cursor.next++ % entries.size());
+        tree.insert(entry.bounds, entry.value);
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic data for the benchmarks. Every dataset lives in a SPACE x SPACE square and is generated
+ * from a fixed seed, so runs on different machines see exactly the same rectangles.
+ */
+public enum Dataset {
+
+    /**
+     * Small squares spread evenly over the space
+     */
+    UNIFORM {
+        @Override
+        Rectangle next(Random random, Point[] centers) {
+            return new Rectangle(random.nextInt(SPACE), random.nextInt(SPACE), 1 + random.nextInt(100), 1 + random.nextInt(100));
+        }
+    },
+
+    /**
+     * Small squares in normally distributed clusters around a few dozen centers
+     */
+    CLUSTERED {
+        @Override
+        Rectangle next(Random random, Point[] centers) {
+            Point center = centers[random.nextInt(centers.length)];
+            int x = clamp(center.x + (int) (random.nextGaussian() * SPACE / 100));
+            int y = clamp(center.y + (int) (random.nextGaussian() * SPACE / 100));
+            return new Rectangle(x, y, 1 + random.nextInt(100), 1 + random.nextInt(100));
+        }
+    },
+
+    /**
+     * Squares of very different sizes, crowded towards one corner of the space
+     */
+    SKEWED {
+        @Override
+        Rectangle next(Random random, Point[] centers) {
+            int x = (int) (Math.pow(random.nextDouble(), 4) * SPACE);
+            int y = (int) (Math.pow(random.nextDouble(), 4) * SPACE);
+            int size = 1 + (int) (Math.pow(random.nextDouble(), 8) * SPACE / 20);
+            return new Rectangle(x, y, size, size);
+        }
+    },
+
+    /**
+     * Long, thin horizontal and vertical rectangles, like road segments
+     */
+    THIN {
+        @Override
+        Rectangle next(Random random, Point[] centers) {
+            int length = 1000 + random.nextInt(SPACE / 50);
+            int thickness = 1 + random.nextInt(3);
+            int x = random.nextInt(SPACE);
+            int y = random.nextInt(SPACE);
+            return random.nextBoolean() ? new Rectangle(x, y, length, thickness) : new Rectangle(x, y, thickness, length);
+        }
+    };
+
+    public static final int SPACE = 1_000_000;
+
+    private static final int CLUSTERS = 50;
+
+    abstract Rectangle next(Random random, Point[] centers);
+
+    public List<RTreeEntry<Integer>> entries(int count, long seed) {
+        Random random = new Random(seed);
+        Point[] centers = new Point[CLUSTERS];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = new Point(random.nextInt(SPACE), random.nextInt(SPACE));
+        }
+        final List<RTreeEntry<Integer>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new RTreeEntry<>(next(random, centers), i));
+        }
+        return entries;
+    }
+
+    /**
+     * Square query windows that each cover the given fraction of the space, placed where the data is
+     */
+    public List<Rectangle> windows(List<RTreeEntry<Integer>> entries, double selectivity, int count, long seed) {
+        Random random = new Random(seed);
+        int side = (int) Math.round(Math.sqrt(selectivity) * SPACE);
+        final List<Rectangle> windows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Rectangle around = entries.get(random.nextInt(entries.size())).bounds;
+            windows.add(new Rectangle(around.x - side / 2, around.y - side / 2, side, side));
+        }
+        return windows;
+    }
+
+    private static int clamp(int coordinate) {
+        return Math.max(0, Math.min(SPACE - 1, coordinate));
+    }
+
+}
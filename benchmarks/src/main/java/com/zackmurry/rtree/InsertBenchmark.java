@@ -0,0 +1,117 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single insert, averaged over building a whole tree one entry at a time
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    static final int ENTRIES = 100_000;
+
+    // Entries per insertAll call
+    private static final int BATCH = 10_000;
+
+    @Param
+    Dataset dataset;
+
+    @Param
+    Strategy strategy;
+
+    @Param({"16"})
+    int maxEntries;
+
+    List<RTreeEntry<Integer>> entries;
+
+    @Setup
+    public void setup() {
+        entries = dataset.entries(ENTRIES, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public RTree<Integer> insert() {
+        RTree<Integer> tree = new RTree<>(maxEntries * 2 / 5, maxEntries, strategy.create());
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds, entry.value);
+        }
+        return tree;
+    }
+
+    /**
+     * The first batch is bulk loaded into the empty tree, the rest are pushed down into it
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public RTree<Integer> insertBatched() {
+        RTree<Integer> tree = new RTree<>(maxEntries * 2 / 5, maxEntries, strategy.create());
+        for (int start = 0; start < ENTRIES; start += BATCH) {
+            tree.insertAll(entries.subList(start, Math.min(ENTRIES, start + BATCH)));
+        }
+        return tree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public PackedRTree<Integer> insertPacked() {
+        PackedRTree<Integer> tree = new PackedRTree<>(maxEntries * 2 / 5, maxEntries);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds, entry.value);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public LongRTree insertLong() {
+        LongRTree tree = new LongRTree(maxEntries * 2 / 5, maxEntries);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds, entry.value);
+        }
+        return tree;
+    }
+
+    /**
+     * Only the corner of each entry is inserted
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public PointRTree insertPoint() {
+        PointRTree tree = new PointRTree(maxEntries * 2 / 5, maxEntries);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds.x, entry.bounds.y, entry.value);
+        }
+        return tree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public HilbertRTree<Integer> insertHilbert() {
+        HilbertRTree<Integer> tree = new HilbertRTree<>(maxEntries);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds, entry.value);
+        }
+        return tree;
+    }
+
+}
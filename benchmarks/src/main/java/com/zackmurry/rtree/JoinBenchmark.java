@@ -0,0 +1,61 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spatial join of two datasets, compared with running one search per entry of the outer set
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+
+    @Param
+    Dataset dataset;
+
+    List<RTreeEntry<Integer>> outer;
+    RTree<Integer> outerTree;
+    RTree<Integer> innerTree;
+
+    @Setup
+    public void setup() {
+        outer = dataset.entries(InsertBenchmark.ENTRIES, 1);
+        outerTree = RTree.bulkLoad(outer, 6, 16, new RStarStrategy());
+        innerTree = RTree.bulkLoad(Dataset.UNIFORM.entries(InsertBenchmark.ENTRIES, 5), 6, 16, new RStarStrategy());
+    }
+
+    @Benchmark
+    public void join(Blackhole blackhole) {
+        RTree.join(outerTree, innerTree, (a, b) -> blackhole.consume(b));
+    }
+
+    @Benchmark
+    public void parallelJoin(Blackhole blackhole) {
+        RTree.parallelJoin(outerTree, innerTree, (a, b) -> blackhole.consume(b));
+    }
+
+    @Benchmark
+    public void searchPerEntry(Blackhole blackhole) {
+        for (RTreeEntry<Integer> entry : outer) {
+            innerTree.search(entry.bounds, blackhole::consume);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * k-nearest-neighbour query latency around points near the data
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearestBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param
+    Dataset dataset;
+
+    @Param({"1", "10", "100"})
+    int k;
+
+    RTree<Integer> tree;
+    List<Point> points;
+    int next;
+
+    @Setup
+    public void setup() {
+        List<RTreeEntry<Integer>> entries = dataset.entries(InsertBenchmark.ENTRIES, 1);
+        tree = new RTree<>(6, 16, new RStarStrategy());
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.bounds, entry.value);
+        }
+        Random random = new Random(3);
+        points = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            Rectangle near = entries.get(random.nextInt(entries.size())).bounds;
+            points.add(new Point(near.x + random.nextInt(1000) - 500, near.y + random.nextInt(1000) - 500));
+        }
+    }
+
+    @Benchmark
+    public List<Integer> nearest() {
+        return tree.nearest(points.get(next++ & (QUERIES - 1)), k);
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A viewport panned in small steps around a circle: searching every position from scratch against only
+ * reporting what entered and left it
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PanBenchmark {
+
+    // Power of two, so the next position can be picked with a mask
+    private static final int STEPS = 1024;
+
+    @Param
+    Dataset dataset;
+
+    // Viewport side as a fraction of the space
+    @Param({"0.01", "0.05", "0.2"})
+    double size;
+
+    RTree<Integer> tree;
+    MovingWindow<Integer> window;
+    List<Rectangle> path;
+    int next;
+
+    @Setup
+    public void setup() {
+        tree = RTree.bulkLoad(dataset.entries(InsertBenchmark.ENTRIES, 1), 6, 16, new RStarStrategy());
+        window = new MovingWindow<>(tree);
+        int side = (int) (Dataset.SPACE * size);
+        path = new ArrayList<>(STEPS);
+        for (int i = 0; i < STEPS; i++) {
+            double angle = 2 * Math.PI * i / STEPS;
+            int x = (int) (Dataset.SPACE / 2 + Dataset.SPACE / 4 * Math.cos(angle));
+            int y = (int) (Dataset.SPACE / 2 + Dataset.SPACE / 4 * Math.sin(angle));
+            path.add(new Rectangle(x - side / 2, y - side / 2, side, side));
+        }
+    }
+
+    private Rectangle nextPosition() {
+        return path.get(next++ & (STEPS - 1));
+    }
+
+    @Benchmark
+    public List<Integer> search() {
+        return tree.search(nextPosition());
+    }
+
+    @Benchmark
+    public void moveTo(Blackhole blackhole) {
+        window.moveTo(nextPosition(), blackhole::consume, blackhole::consume);
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Window query latency. The selectivity is the fraction of the space each query window covers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    // Power of two, so the next query can be picked with a mask
+    private static final int QUERIES = 1024;
+
+    @Param
+    Dataset dataset;
+
+    @Param
+    Strategy strategy;
+
+    @Param({"0.00001", "0.0001", "0.001", "0.01"})
+    double selectivity;
+
+    RTree<Integer> inserted;
+    RTree<Integer> bulkLoaded;
+    PackedRTree<Integer> packed;
+    HilbertRTree<Integer> hilbert;
+    List<Rectangle> windows;
+    int next;
+
+    @Setup
+    public void setup() {
+        List<RTreeEntry<Integer>> entries = dataset.entries(InsertBenchmark.ENTRIES, 1);
+        inserted = new RTree<>(6, 16, strategy.create());
+        packed = new PackedRTree<>(6, 16);
+        hilbert = new HilbertRTree<>(16);
+        for (RTreeEntry<Integer> entry : entries) {
+            inserted.insert(entry.bounds, entry.value);
+            packed.insert(entry.bounds, entry.value);
+            hilbert.insert(entry.bounds, entry.value);
+        }
+        bulkLoaded = RTree.bulkLoad(entries, 6, 16, strategy.create());
+        windows = dataset.windows(entries, selectivity, QUERIES, 2);
+    }
+
+    private Rectangle nextWindow() {
+        return windows.get(next++ & (QUERIES - 1));
+    }
+
+    @Benchmark
+    public List<Integer> search() {
+        return inserted.search(nextWindow());
+    }
+
+    @Benchmark
+    public int count() {
+        return inserted.count(nextWindow());
+    }
+
+    @Benchmark
+    public List<Integer> searchBulkLoaded() {
+        return bulkLoaded.search(nextWindow());
+    }
+
+    @Benchmark
+    public List<Integer> searchPacked() {
+        return packed.search(nextWindow());
+    }
+
+    @Benchmark
+    public List<Integer> searchHilbert() {
+        return hilbert.search(nextWindow());
+    }
+
+}
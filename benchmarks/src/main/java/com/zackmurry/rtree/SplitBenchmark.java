@@ -0,0 +1,69 @@
+package com.zackmurry.rtree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of splitting one overflowing node. Each node holds an entry and its nearest neighbours, which is
+ * roughly what a leaf looks like when it overflows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SplitBenchmark {
+
+    private static final int NODES = 1024;
+
+    @Param
+    Dataset dataset;
+
+    @Param
+    Strategy strategy;
+
+    @Param({"8", "32", "128"})
+    int maxEntries;
+
+    InsertionStrategy insertionStrategy;
+    List<List<Rectangle>> nodes;
+    int next;
+
+    @Setup
+    public void setup() {
+        List<RTreeEntry<Integer>> entries = dataset.entries(InsertBenchmark.ENTRIES, 1);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+        Random random = new Random(4);
+        nodes = new ArrayList<>(NODES);
+        for (int i = 0; i < NODES; i++) {
+            List<Rectangle> node = new ArrayList<>(maxEntries + 1);
+            for (int neighbour : tree.nearest(entries.get(random.nextInt(entries.size())).bounds, maxEntries + 1, Double.POSITIVE_INFINITY)) {
+                node.add(entries.get(neighbour).bounds);
+            }
+            nodes.add(node);
+        }
+        insertionStrategy = strategy.create();
+    }
+
+    @Benchmark
+    public boolean[] split() {
+        return insertionStrategy.split(nodes.get(next++ & (NODES - 1)), maxEntries * 2 / 5);
+    }
+
+}
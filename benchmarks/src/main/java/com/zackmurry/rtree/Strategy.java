@@ -0,0 +1,24 @@
+package com.zackmurry.rtree;
+
+import java.util.function.Supplier;
+
+/**
+ * Insertion strategies as a JMH parameter
+ */
+public enum Strategy {
+
+    QUADRATIC(QuadraticStrategy::new),
+    LINEAR(LinearStrategy::new),
+    RSTAR(RStarStrategy::new);
+
+    private final Supplier<InsertionStrategy> factory;
+
+    Strategy(Supplier<InsertionStrategy> factory) {
+        this.factory = factory;
+    }
+
+    public InsertionStrategy create() {
+        return factory.get();
+    }
+
+}
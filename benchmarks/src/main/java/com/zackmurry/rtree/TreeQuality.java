@@ -0,0 +1,37 @@
+package com.zackmurry.rtree;
+
+import java.util.List;
+
+/**
+ * Prints structural statistics of trees built from each dataset. Better trees are shallower, have fuller nodes
+ * and less overlap and dead space, which is what makes queries fast.
+ * Run with: java -cp target/benchmarks.jar com.zackmurry.rtree.TreeQuality
+ */
+public class TreeQuality {
+
+    public static void main(String[] args) {
+        System.out.printf("%-10s %-18s %7s %8s %7s %15s %15s%n", "dataset", "tree", "height", "nodes", "fill", "overlap", "dead space");
+        for (Dataset dataset : Dataset.values()) {
+            List<RTreeEntry<Integer>> entries = dataset.entries(InsertBenchmark.ENTRIES, 1);
+            for (Strategy strategy : Strategy.values()) {
+                RTree<Integer> tree = new RTree<>(6, 16, strategy.create());
+                for (RTreeEntry<Integer> entry : entries) {
+                    tree.insert(entry.bounds, entry.value);
+                }
+                print(dataset, strategy.name().toLowerCase() + " insert", tree.stats());
+            }
+            HilbertRTree<Integer> hilbert = new HilbertRTree<>(16);
+            for (RTreeEntry<Integer> entry : entries) {
+                hilbert.insert(entry.bounds, entry.value);
+            }
+            print(dataset, "hilbert insert", hilbert.stats());
+            print(dataset, "bulk load", RTree.bulkLoad(entries, 6, 16, new RStarStrategy()).stats());
+        }
+    }
+
+    private static void print(Dataset dataset, String name, RTreeStats stats) {
+        System.out.printf("%-10s %-18s %7d %8d %6.1f%% %15d %15d%n", dataset.name().toLowerCase(), name, stats.getHeight(), stats.getNodeCount(),
+                100 * stats.getAverageFill(), stats.getOverlapArea(), stats.getDeadSpace());
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.zackmurry.rtree;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Summary of a set of values, such as their sum or maximum, that a tree can keep a running total of for every
+ * node (see {@link RTree#addAggregator}). combine has to be associative and commutative with identity as its
+ * identity element, since totals are combined in whatever order the tree happens to be arranged in.
+ * @param <T> Type of value stored in the tree
+ * @param <A> Type of the aggregate
+ */
+public interface Aggregator<T, A> {
+
+    static <T, A> Aggregator<T, A> of(A identity, Function<? super T, ? extends A> of, BinaryOperator<A> combine) {
+        return new Aggregator<>() {
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @Override
+            public A of(T value) {
+                return of.apply(value);
+            }
+
+            @Override
+            public A combine(A a, A b) {
+                return combine.apply(a, b);
+            }
+        };
+    }
+
+    static <T> Aggregator<T, Double> sum(ToDoubleFunction<? super T> extractor) {
+        return of(0.0, extractor::applyAsDouble, Double::sum);
+    }
+
+    static <T> Aggregator<T, Double> min(ToDoubleFunction<? super T> extractor) {
+        return of(Double.POSITIVE_INFINITY, extractor::applyAsDouble, Math::min);
+    }
+
+    static <T> Aggregator<T, Double> max(ToDoubleFunction<? super T> extractor) {
+        return of(Double.NEGATIVE_INFINITY, extractor::applyAsDouble, Math::max);
+    }
+
+    A identity();
+
+    A of(T value);
+
+    A combine(A a, A b);
+
+}
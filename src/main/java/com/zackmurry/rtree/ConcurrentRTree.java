@@ -0,0 +1,224 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe R-Tree that allows concurrent inserts and searches, based on the R-link tree
+ * https://dsf.berkeley.edu/papers/sigmod97-gist.pdf
+ * <p>
+ * Every node has its own read/write latch. Writers descend with lock coupling, letting go of all ancestors as
+ * soon as they reach a node that has room for one more entry, so a split only ever holds the latches of the
+ * nodes it actually changes. Readers hold one latch at a time. When a node is split, the new sibling is linked
+ * to its right and the node gets a new sequence number, which lets a reader that saw the node's parent before
+ * the split detect it and follow the right links to the entries that were moved.
+ * @param <T> Type of value to store
+ */
+public class ConcurrentRTree<T> {
+
+    private static final class Node<T> {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        boolean leaf;
+        // Bounds of each child (or value, in a leaf), guarded by this node's latch
+        List<Rectangle> bounds = new ArrayList<>();
+        List<Node<T>> children = new ArrayList<>();
+        List<T> values = new ArrayList<>();
+        Node<T> right;
+        long sequence;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int size() {
+            return bounds.size();
+        }
+
+        Rectangle computeBounds() {
+            Rectangle result = new Rectangle(bounds.get(0));
+            for (Rectangle rect : bounds) {
+                result.add(rect);
+            }
+            return result;
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+    private final InsertionStrategy strategy;
+    // The root node object never changes; a root split moves its contents down a level instead
+    private final Node<T> root = new Node<>(true);
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public ConcurrentRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES, new QuadraticStrategy());
+    }
+
+    /**
+     * Forced reinsertion is not used even if the strategy asks for it, since it would need latches on
+     * arbitrary parts of the tree
+     */
+    public ConcurrentRTree(int minEntries, int maxEntries, InsertionStrategy strategy) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.strategy = strategy;
+    }
+
+    public List<T> search(Rectangle area) {
+        final List<T> results = new ArrayList<>();
+        search(area, results::add);
+        return results;
+    }
+
+    public void search(Rectangle area, Consumer<? super T> consumer) {
+        if (area == null) {
+            return;
+        }
+        // Each pending node is paired with the sequence number that was current when its pointer was read
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        Deque<Long> pendingSequence = new ArrayDeque<>();
+        pending.push(root);
+        pendingSequence.push(Long.MAX_VALUE); // The root is never split in place
+        List<T> matches = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            long seen = pendingSequence.pop();
+            node.lock.readLock().lock();
+            try {
+                if (node.sequence > seen && node.right != null) {
+                    // Split since the parent was read: the moved entries are somewhere along the right links
+                    pending.push(node.right);
+                    pendingSequence.push(seen);
+                }
+                long current = sequence.get();
+                for (int i = 0; i < node.size(); i++) {
+                    if (area.intersects(node.bounds.get(i))) {
+                        if (node.leaf) {
+                            matches.add(node.values.get(i));
+                        } else {
+                            pending.push(node.children.get(i));
+                            pendingSequence.push(current);
+                        }
+                    }
+                }
+            } finally {
+                node.lock.readLock().unlock();
+            }
+            // Hand results out without holding a latch so that slow consumers don't block writers
+            for (T match : matches) {
+                consumer.accept(match);
+            }
+            matches.clear();
+        }
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        Rectangle itemBounds = new Rectangle(bounds);
+        // Latched nodes that might still be split by this insert, from the top down, with the index taken in each
+        List<Node<T>> latched = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        Node<T> node = root;
+        node.lock.writeLock().lock();
+        latched.add(node);
+        try {
+            while (!node.leaf) {
+                // Whether a node is a leaf never changes except for the root, so this is safe to read without the child's latch
+                int index = strategy.chooseSubtree(node.bounds, itemBounds, node.children.get(0).leaf);
+                node.bounds.get(index).add(itemBounds);
+                Node<T> child = node.children.get(index);
+                child.lock.writeLock().lock();
+                if (child.size() < maxEntries) {
+                    // The child can't overflow, so nothing above it will change any further
+                    for (Node<T> ancestor : latched) {
+                        ancestor.lock.writeLock().unlock();
+                    }
+                    latched.clear();
+                    indices.clear();
+                } else {
+                    indices.add(index);
+                }
+                latched.add(child);
+                node = child;
+            }
+
+            node.bounds.add(itemBounds);
+            node.values.add(value);
+            size.incrementAndGet();
+
+            for (int level = latched.size() - 1; node.size() > maxEntries; level--) {
+                if (node == root) {
+                    splitRoot();
+                    break;
+                }
+                Node<T> parent = latched.get(level - 1);
+                int index = indices.get(level - 1);
+                Node<T> sibling = split(node);
+                parent.bounds.set(index, node.computeBounds());
+                parent.bounds.add(sibling.computeBounds());
+                parent.children.add(sibling);
+                node = parent;
+            }
+        } finally {
+            for (Node<T> latchedNode : latched) {
+                latchedNode.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Moves part of the node's contents into a new right sibling. The caller must hold the node's write latch.
+    private Node<T> split(Node<T> node) {
+        boolean[] second = strategy.split(node.bounds, minEntries);
+        Node<T> sibling = new Node<>(node.leaf);
+        List<Rectangle> keptBounds = new ArrayList<>();
+        List<Node<T>> keptChildren = new ArrayList<>();
+        List<T> keptValues = new ArrayList<>();
+        for (int i = 0; i < second.length; i++) {
+            (second[i] ? sibling.bounds : keptBounds).add(node.bounds.get(i));
+            if (node.leaf) {
+                (second[i] ? sibling.values : keptValues).add(node.values.get(i));
+            } else {
+                (second[i] ? sibling.children : keptChildren).add(node.children.get(i));
+            }
+        }
+        sibling.right = node.right;
+        sibling.sequence = node.sequence;
+        node.bounds = keptBounds;
+        node.children = keptChildren;
+        node.values = keptValues;
+        node.right = sibling;
+        node.sequence = sequence.incrementAndGet();
+        return sibling;
+    }
+
+    // Grows the tree by one level. The caller must hold the root's write latch.
+    private void splitRoot() {
+        Node<T> left = new Node<>(root.leaf);
+        left.bounds = root.bounds;
+        left.children = root.children;
+        left.values = root.values;
+        Node<T> right = split(left);
+        // Nobody else can have a pointer to the new nodes yet, so they don't need right links
+        left.right = null;
+        right.right = null;
+        root.leaf = false;
+        root.bounds = new ArrayList<>(List.of(left.computeBounds(), right.computeBounds()));
+        root.children = new ArrayList<>(List.of(left, right));
+        root.values = new ArrayList<>();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+}
@@ -6,8 +6,13 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferStrategy;
-import java.util.ConcurrentModificationException;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 public class Display extends Canvas implements Runnable {
 
@@ -18,27 +23,59 @@ public class Display extends Canvas implements Runnable {
     private static final String title = "R-Tree Visualizer";
     private static final Font font = new Font("Serif", Font.PLAIN, 24);
 
+    // Paint objects are shared between frames instead of being created for every node (and with TreeRenderer)
+    static final Color BACKGROUND_COLOR = Color.WHITE;
+    static final Color ENTRY_COLOR = new Color(30, 94, 232);
+    private static final Color SEARCH_COLOR = new Color(50, 204, 89);
+    private static final BasicStroke NODE_STROKE = new BasicStroke(5);
+    private static final BasicStroke SEARCH_STROKE = new BasicStroke(3);
+    // Nodes get redder the deeper they are, up to full red
+    private static final Color[] DEPTH_COLORS = new Color[7];
+    // Anything this small is hidden under the stroke of its own outline, so its contents aren't drawn
+    private static final int DETAIL_SIZE = (int) NODE_STROKE.getLineWidth();
+
+    static {
+        for (int depth = 0; depth < DEPTH_COLORS.length; depth++) {
+            DEPTH_COLORS[depth] = new Color(Math.min(depth * 50, 255), 0, 0);
+        }
+    }
+
     private JFrame frame;
 
-    private static boolean running = false;
+    private static volatile boolean running = false;
 
+    // Set when the tree or the search changes, and cleared when the render thread starts drawing the change
+    private final Object renderLock = new Object();
+    private boolean dirty = true;
+
+    // Inserts lock the tree so that they never happen while it is being drawn. The tree is drawn into its own
+    // image, which is only redrawn after an insert, so moving the search only redraws the search.
     private final RTree<Rectangle> rtree = new RTree<>();
+    private BufferedImage treeImage;
+    private boolean treeChanged = true;
+    private final MovingWindow<Rectangle> searchWindow = new MovingWindow<>(rtree);
+    private final Rectangle viewport = new Rectangle(0, 0, WIDTH, HEIGHT);
     private Point dragStart = null;
-    private Rectangle searchRect = null;
-    private List<Rectangle> searchedRects = null;
+    private volatile Rectangle searchRect = null;
+    // Kept up to date from what enters and leaves the search window, so dragging doesn't copy every result. Each
+    // entry's value is its own Rectangle, so identity tells apart entries with equal bounds.
+    private final Set<Rectangle> searchedRects = Collections.newSetFromMap(new IdentityHashMap<>());
 
     class ClickDetector implements MouseListener {
         @Override
         public void mouseClicked(MouseEvent mouseEvent) {
             if (mouseEvent.getButton() == MouseEvent.BUTTON1) {
                 var rect = new Rectangle(mouseEvent.getX(), mouseEvent.getY(), 10, 20);
-                rtree.insert(rect, rect);
-                System.out.println(rtree);
+                synchronized (rtree) {
+                    rtree.insert(rect, rect);
+                    treeChanged = true;
+                }
             } else if (mouseEvent.getButton() == MouseEvent.BUTTON3) {
+                // Releasing the button already moved the window to an empty area, so there are no results left
                 searchRect = null;
                 dragStart = null;
-                searchedRects = null;
             }
+            requestRender();
         }
 
         @Override
@@ -56,8 +93,14 @@ public class Display extends Canvas implements Runnable {
                 int x2 = Math.max(mouseEvent.getX(), dragStart.x);
                 int y2 = Math.max(mouseEvent.getY(), dragStart.y);
                 searchRect = new Rectangle(x1, y1, x2 - x1, y2 - y1);
-                searchedRects = rtree.search(searchRect);
+                synchronized (searchedRects) {
+                    // Reading the results of the window the drag settled on caches them, so dragging back to it is free
+                    searchWindow.moveTo(searchRect);
+                    searchedRects.clear();
+                    searchedRects.addAll(searchWindow.results());
+                }
                 dragStart = null;
+                requestRender();
             }
         }
 
@@ -80,7 +123,10 @@ public class Display extends Canvas implements Runnable {
                 int x2 = Math.max(mouseEvent.getX(), dragStart.x);
                 int y2 = Math.max(mouseEvent.getY(), dragStart.y);
                 searchRect = new Rectangle(x1, y1, x2 - x1, y2 - y1);
-                searchedRects = rtree.search(searchRect);
+                synchronized (searchedRects) {
+                    searchWindow.moveTo(searchRect, searchedRects::add, searchedRects::remove);
+                }
+                requestRender();
             }
         }
 
@@ -106,6 +152,7 @@ public class Display extends Canvas implements Runnable {
 
     public synchronized void stop() {
         running = false;
+        requestRender();
         try{
             this.thread.join();
         } catch (Exception e){
@@ -114,78 +161,161 @@ public class Display extends Canvas implements Runnable {
         }
     }
 
+    /**
+     * Draws a frame whenever something has changed, and sleeps otherwise
+     */
     @Override
     public void run() {
         try{
             while(running) {
+                synchronized (renderLock) {
+                    while (!dirty && running) {
+                        renderLock.wait();
+                    }
+                    dirty = false;
+                }
                 render();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private synchronized void render() {
+    private void requestRender() {
+        synchronized (renderLock) {
+            dirty = true;
+            renderLock.notifyAll();
+        }
+    }
+
+    // The window system calls this when the canvas has to be redrawn, such as after being uncovered
+    @Override
+    public void paint(Graphics g) {
+        requestRender();
+    }
+
+    @Override
+    public void update(Graphics g) {
+        requestRender();
+    }
+
+    private void render() {
         BufferStrategy bs = this.getBufferStrategy();
         if (bs == null) {
             this.createBufferStrategy(3);
+            requestRender();
             return;
         }
+        do {
+            do {
+                Graphics g = bs.getDrawGraphics();
+                g.setFont(font);
+                draw(g);
+                g.dispose();
+            } while (bs.contentsRestored());
+            bs.show();
+        } while (bs.contentsLost());
         Toolkit.getDefaultToolkit().sync();
-
-        Graphics g = bs.getDrawGraphics();
-
-        g.setFont(font);
-
-        g.setColor(Color.WHITE);
-        g.fillRect(0,0,WIDTH,HEIGHT);
-
-        // Draw R-Tree
-        draw(g);
-
-        g.dispose();
-        bs.show();
     }
 
     public void draw(Graphics g) {
-        g.setColor(new Color(255, 255, 255));
-        g.fillRect(-WIDTH, -HEIGHT, 2*WIDTH, 2*HEIGHT);
+        synchronized (rtree) {
+            if (treeImage == null || treeChanged) {
+                drawTree();
+                treeChanged = false;
+            }
+        }
+        g.drawImage(treeImage, 0, 0, null);
 
-        drawNode(rtree, g, 0);
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setColor(new Color(50, 204, 89));
-        g2d.setStroke(new BasicStroke(5));
-        if (searchedRects != null) {
+        g2d.setColor(SEARCH_COLOR);
+        g2d.setStroke(NODE_STROKE);
+        synchronized (searchedRects) {
             for (Rectangle rect : searchedRects) {
-                g2d.drawRect(rect.x, rect.y, rect.width, rect.height);
+                if (isVisible(rect)) {
+                    drawOutline(g2d, rect);
+                }
             }
         }
-        g2d.setStroke(new BasicStroke(3));
-        if (searchRect != null) {
-            g2d.drawRect(searchRect.x, searchRect.y, searchRect.width, searchRect.height);
+        g2d.setStroke(SEARCH_STROKE);
+        Rectangle search = searchRect;
+        if (search != null) {
+            g2d.drawRect(search.x, search.y, search.width, search.height);
+        }
+    }
+
+    private void drawTree() {
+        if (treeImage == null) {
+            treeImage = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D g = treeImage.createGraphics();
+        g.setColor(BACKGROUND_COLOR);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setStroke(NODE_STROKE);
+        if (isVisible(rtree.bounds)) {
+            drawNode(rtree, g, 0);
         }
+        g.dispose();
     }
 
-    private void drawNode(RTree<Rectangle> node, Graphics g, int depth) {
-        try {
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setColor(new Color(Math.min(depth * 50, 255), 0, 0));
-            g2d.setStroke(new BasicStroke(5));
-            g2d.drawRect(node.bounds.x, node.bounds.y, node.bounds.width, node.bounds.height);
-            g.setColor(new Color(30, 94, 232));
-            for (RTreeEntry<Rectangle> entry : node.entries) {
+    private void drawNode(RTree<Rectangle> node, Graphics2D g, int depth) {
+        Rectangle bounds = node.bounds;
+        g.setColor(depthColor(depth));
+        drawOutline(g, bounds);
+        if (bounds.width <= DETAIL_SIZE && bounds.height <= DETAIL_SIZE && node.count > 1) {
+            // Level of detail: the node's entries would all land inside its outline, so fill it in as one block
+            g.setColor(ENTRY_COLOR);
+            g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+            return;
+        }
+        g.setColor(ENTRY_COLOR);
+        for (RTreeEntry<Rectangle> entry : node.entries) {
+            if (isVisible(entry.bounds)) {
                 g.fillRect(entry.bounds.x, entry.bounds.y, entry.bounds.width, entry.bounds.height);
             }
-            for (RTree<Rectangle> child : node.children) {
+        }
+        for (RTree<Rectangle> child : node.children) {
+            if (isVisible(child.bounds)) {
                 drawNode(child, g, depth + 1);
             }
-        } catch (ConcurrentModificationException e) {
-            drawNode(node, g, depth);
         }
     }
 
+    static Color depthColor(int depth) {
+        return DEPTH_COLORS[Math.min(depth, DEPTH_COLORS.length - 1)];
+    }
+
+    // Outlines of small rectangles cover them entirely, and a filled square is much cheaper to draw than a stroke
+    private static void drawOutline(Graphics2D g, Rectangle rect) {
+        if (rect.width <= DETAIL_SIZE && rect.height <= DETAIL_SIZE) {
+            g.fillRect(rect.x - DETAIL_SIZE / 2, rect.y - DETAIL_SIZE / 2, rect.width + DETAIL_SIZE, rect.height + DETAIL_SIZE);
+        } else {
+            g.drawRect(rect.x, rect.y, rect.width, rect.height);
+        }
+    }
+
+    // Whether any part of the rectangle, edges included, falls inside the viewport
+    private boolean isVisible(Rectangle rect) {
+        return rect.x <= viewport.x + viewport.width && viewport.x <= (long) rect.x + rect.width
+                && rect.y <= viewport.y + viewport.height && viewport.y <= (long) rect.y + rect.height;
+    }
+
+    /**
+     * @param args optionally, a number of random entries to start with
+     */
     public static void main(String[] args) {
         Display display = new Display();
+        if (args.length > 0) {
+            Random random = new Random();
+            List<RTreeEntry<Rectangle>> entries = new ArrayList<>();
+            for (int i = Integer.parseInt(args[0]); i > 0; i--) {
+                var rect = new Rectangle(random.nextInt(WIDTH), random.nextInt(HEIGHT), 1 + random.nextInt(3), 1 + random.nextInt(3));
+                entries.add(new RTreeEntry<>(rect, rect));
+            }
+            display.rtree.insertAll(entries);
+        }
         display.frame.setTitle(title);
 
         display.frame.setLayout(new GridBagLayout());
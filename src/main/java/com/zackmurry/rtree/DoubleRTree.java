@@ -0,0 +1,453 @@
+package com.zackmurry.rtree;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * R-Tree with double-precision coordinates, for data like latitudes and longitudes that don't fit in an int grid.
+ * <p>
+ * Only the leaves keep exact bounds, for their entries. Internal nodes store the box of each child quantized to
+ * 16 bits per coordinate relative to the node's own box, rounded outwards, which takes 8 bytes per child instead of
+ * 32. No node stores its own box: the tree keeps one box for the root, and the box of every other node is derived
+ * on the way down by dequantizing its slot in the parent's box. A derived box always contains everything below it,
+ * so searches can only visit extra nodes, never miss one, and then test leaf entries exactly, so results are exact.
+ * <p>
+ * When a box has to change, the children inside it are re-expressed in the new box, and so on down for any child
+ * whose own box came out different. Boxes that grow are grown a little past the new entry, so that data arriving
+ * in order doesn't regrow the same boxes on every insert. Bounds are closed: entries that only touch the search
+ * area, and zero-size entries such as points, are found.
+ * @param <T> Type of value to store
+ */
+public class DoubleRTree<T> {
+
+    // Largest quantized coordinate: 0 is the box's lower edge and LEVELS its upper edge
+    private static final int LEVELS = 0xFFFF;
+
+    // How far past a new entry a growing box is extended, as a fraction of its extent
+    private static final double SLACK = 0.125;
+
+    private static final class Node {
+        final boolean leaf;
+        int size;
+        // Leaves: minX, minY, maxX, maxY of each entry. One spare slot for overflow before a split.
+        final double[] exact;
+        final Object[] values;
+        // Internal nodes: minX, minY, maxX, maxY of each child, quantized relative to this node's box
+        final char[] quantized;
+        final Node[] children;
+
+        Node(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.exact = leaf ? new double[4 * capacity] : null;
+            this.values = leaf ? new Object[capacity] : null;
+            this.quantized = leaf ? null : new char[4 * capacity];
+            this.children = leaf ? null : new Node[capacity];
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+
+    private Node root;
+    private int height = 1;
+    private int size = 0;
+
+    // Box of the root, which the boxes of all other nodes are derived from
+    private final double[] rootBox = new double[4];
+    // Exact bounds of every entry
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    // Scratch space reused by every insert: the nodes and slots on the way down and the box of each of those nodes
+    private Node[] path = new Node[1];
+    private int[] pathIndex = new int[1];
+    private double[][] boxes = new double[1][4];
+    // Scratch space for splits: the box of every slot in the node being split, the group of each slot, and the
+    // quantized boxes of both halves in the parent's box
+    private final double[] splitBounds;
+    private final byte[] splitGroup;
+    private final char[] splitCodes = new char[8];
+
+    public DoubleRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES);
+    }
+
+    public DoubleRTree(int minEntries, int maxEntries) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.root = new Node(true, maxEntries + 1);
+        this.splitBounds = new double[4 * (maxEntries + 1)];
+        this.splitGroup = new byte[maxEntries + 1];
+    }
+
+    public List<T> search(Rectangle2D area) {
+        final List<T> results = new ArrayList<>();
+        search(area, results::add);
+        return results;
+    }
+
+    public void search(Rectangle2D area, Consumer<? super T> consumer) {
+        if (area != null) {
+            search(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), consumer);
+        }
+    }
+
+    public void search(double x1, double y1, double x2, double y2, Consumer<? super T> consumer) {
+        if (size > 0 && rootBox[0] <= x2 && x1 <= rootBox[2] && rootBox[1] <= y2 && y1 <= rootBox[3]) {
+            search(root, rootBox[0], rootBox[1], rootBox[2], rootBox[3], x1, y1, x2, y2, consumer);
+        }
+    }
+
+    // The node's box is bx1, by1, bx2, by2, and intersects the search area
+    @SuppressWarnings("unchecked")
+    private void search(Node node, double bx1, double by1, double bx2, double by2, double x1, double y1, double x2, double y2, Consumer<? super T> consumer) {
+        if (node.leaf) {
+            double[] exact = node.exact;
+            for (int i = 0; i < node.size; i++) {
+                if (exact[4 * i] <= x2 && x1 <= exact[4 * i + 2] && exact[4 * i + 1] <= y2 && y1 <= exact[4 * i + 3]) {
+                    consumer.accept((T) node.values[i]);
+                }
+            }
+            return;
+        }
+        // Levels are tight, so comparing against the query in the node's grid is the same as comparing the
+        // dequantized boxes, and only the children that match need dequantizing
+        char qx1 = quantizeUp(x1, bx1, bx2);
+        char qy1 = quantizeUp(y1, by1, by2);
+        char qx2 = quantizeDown(x2, bx1, bx2);
+        char qy2 = quantizeDown(y2, by1, by2);
+        char[] quantized = node.quantized;
+        for (int i = 0; i < node.size; i++) {
+            if (quantized[4 * i] <= qx2 && qx1 <= quantized[4 * i + 2] && quantized[4 * i + 1] <= qy2 && qy1 <= quantized[4 * i + 3]) {
+                search(node.children[i], dequantize(quantized[4 * i], bx1, bx2), dequantize(quantized[4 * i + 1], by1, by2),
+                        dequantize(quantized[4 * i + 2], bx1, bx2), dequantize(quantized[4 * i + 3], by1, by2), x1, y1, x2, y2, consumer);
+            }
+        }
+    }
+
+    public void insert(Rectangle2D bounds, T value) {
+        insert(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY(), value);
+    }
+
+    public void insert(double x1, double y1, double x2, double y2, T value) {
+        // Infinite coordinates can't be quantized, and isFinite rejects NaN too
+        if (!Double.isFinite(x1) || !Double.isFinite(y1) || !Double.isFinite(x2) || !Double.isFinite(y2) || x1 > x2 || y1 > y2) {
+            throw new IllegalArgumentException("Invalid bounds: (" + x1 + ", " + y1 + ") to (" + x2 + ", " + y2 + ")");
+        }
+        if (size == 0) {
+            rootBox[0] = x1;
+            rootBox[1] = y1;
+            rootBox[2] = x2;
+            rootBox[3] = y2;
+        } else if (!contains(rootBox, x1, y1, x2, y2)) {
+            double[] before = boxes[0];
+            System.arraycopy(rootBox, 0, before, 0, 4);
+            grow(rootBox, x1, y1, x2, y2, null);
+            rebase(root, before, rootBox);
+        }
+        minX = Math.min(minX, x1);
+        minY = Math.min(minY, y1);
+        maxX = Math.max(maxX, x2);
+        maxY = Math.max(maxY, y2);
+
+        // Choose leaf, growing each chosen child's box inside its parent's on the way down if the entry sticks out
+        System.arraycopy(rootBox, 0, boxes[0], 0, 4);
+        Node node = root;
+        int depth = 0;
+        while (!node.leaf) {
+            int index = chooseSubtree(node, boxes[depth], x1, y1, x2, y2);
+            double[] box = boxes[depth + 1];
+            dequantize(node.quantized, 4 * index, boxes[depth], box, 0);
+            if (!contains(box, x1, y1, x2, y2)) {
+                double bx1 = box[0], by1 = box[1], bx2 = box[2], by2 = box[3];
+                grow(box, x1, y1, x2, y2, boxes[depth]);
+                quantize(box, 0, boxes[depth], node.quantized, 4 * index);
+                dequantize(node.quantized, 4 * index, boxes[depth], box, 0);
+                rebase(node.children[index], bx1, by1, bx2, by2, box[0], box[1], box[2], box[3]);
+            }
+            path[depth] = node;
+            pathIndex[depth] = index;
+            depth++;
+            node = node.children[index];
+        }
+
+        int slot = node.size++;
+        node.exact[4 * slot] = x1;
+        node.exact[4 * slot + 1] = y1;
+        node.exact[4 * slot + 2] = x2;
+        node.exact[4 * slot + 3] = y2;
+        node.values[slot] = value;
+        size++;
+
+        // Split overflowing nodes from the leaf upwards. The root's halves get boxes inside the root's own box,
+        // which becomes the box of the new root.
+        while (node.size > maxEntries) {
+            Node sibling = split(node, boxes[depth], depth == 0 ? rootBox : boxes[depth - 1]);
+            if (depth == 0) {
+                Node newRoot = new Node(false, maxEntries + 1);
+                newRoot.children[0] = node;
+                newRoot.children[1] = sibling;
+                newRoot.size = 2;
+                System.arraycopy(splitCodes, 0, newRoot.quantized, 0, 8);
+                root = newRoot;
+                height++;
+                path = new Node[height];
+                pathIndex = new int[height];
+                boxes = new double[height][4];
+                break;
+            }
+            depth--;
+            Node parent = path[depth];
+            System.arraycopy(splitCodes, 0, parent.quantized, 4 * pathIndex[depth], 4);
+            System.arraycopy(splitCodes, 4, parent.quantized, 4 * parent.size, 4);
+            parent.children[parent.size++] = sibling;
+            node = parent;
+        }
+    }
+
+    private int chooseSubtree(Node node, double[] box, double x1, double y1, double x2, double y2) {
+        final char[] quantized = node.quantized;
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.size; i++) {
+            double cx1 = dequantize(quantized[4 * i], box[0], box[2]);
+            double cy1 = dequantize(quantized[4 * i + 1], box[1], box[3]);
+            double cx2 = dequantize(quantized[4 * i + 2], box[0], box[2]);
+            double cy2 = dequantize(quantized[4 * i + 3], box[1], box[3]);
+            double area = area(cx1, cy1, cx2, cy2);
+            double enlargement = area(Math.min(cx1, x1), Math.min(cy1, y1), Math.max(cx2, x2), Math.max(cy2, y2)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                bestEnlargement = enlargement;
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Guttman's quadratic split on the boxes of the node's slots. Entries assigned to the second group are moved into
+     * a new sibling. Each half's box is the union of its slots rounded outwards to the parent's grid, and is left in
+     * splitCodes for the parent to store. The children of both halves are re-expressed in their new boxes.
+     */
+    private Node split(Node node, double[] box, double[] parentBox) {
+        final int n = node.size;
+        final double[] b = splitBounds;
+        final byte[] group = splitGroup;
+        for (int i = 0; i < n; i++) {
+            if (node.leaf) {
+                System.arraycopy(node.exact, 4 * i, b, 4 * i, 4);
+            } else {
+                dequantize(node.quantized, 4 * i, box, b, 4 * i);
+            }
+        }
+        QuadraticSplit.assign(b, n, minEntries, group);
+
+        double[] first = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        double[] second = first.clone();
+        for (int i = 0; i < n; i++) {
+            double[] half = group[i] == 2 ? second : first;
+            half[0] = Math.min(half[0], b[4 * i]);
+            half[1] = Math.min(half[1], b[4 * i + 1]);
+            half[2] = Math.max(half[2], b[4 * i + 2]);
+            half[3] = Math.max(half[3], b[4 * i + 3]);
+        }
+        quantize(first, 0, parentBox, splitCodes, 0);
+        dequantize(splitCodes, 0, parentBox, first, 0);
+        quantize(second, 0, parentBox, splitCodes, 4);
+        dequantize(splitCodes, 4, parentBox, second, 0);
+
+        Node sibling = new Node(node.leaf, maxEntries + 1);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            Node to = group[i] == 2 ? sibling : node;
+            int toIndex = group[i] == 2 ? sibling.size++ : kept++;
+            if (node.leaf) {
+                System.arraycopy(node.exact, 4 * i, to.exact, 4 * toIndex, 4);
+                to.values[toIndex] = node.values[i];
+            } else {
+                to.children[toIndex] = node.children[i];
+                double[] half = group[i] == 2 ? second : first;
+                quantize(b, 4 * i, half, to.quantized, 4 * toIndex);
+                rebase(to.children[toIndex], b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3],
+                        dequantize(to.quantized[4 * toIndex], half[0], half[2]), dequantize(to.quantized[4 * toIndex + 1], half[1], half[3]),
+                        dequantize(to.quantized[4 * toIndex + 2], half[0], half[2]), dequantize(to.quantized[4 * toIndex + 3], half[1], half[3]));
+            }
+        }
+        for (int i = kept; i < n; i++) {
+            // Drop references so that moved values/children can be collected
+            if (node.leaf) {
+                node.values[i] = null;
+            } else {
+                node.children[i] = null;
+            }
+        }
+        node.size = kept;
+        return sibling;
+    }
+
+    private static void rebase(Node node, double[] from, double[] to) {
+        rebase(node, from[0], from[1], from[2], from[3], to[0], to[1], to[2], to[3]);
+    }
+
+    /**
+     * Re-expresses the node's children in its new box (tx1, ty1, tx2, ty2), which contains the old one. A child whose
+     * box comes out different has its own children re-expressed in turn.
+     */
+    private static void rebase(Node node, double fx1, double fy1, double fx2, double fy2, double tx1, double ty1, double tx2, double ty2) {
+        if (node.leaf || (fx1 == tx1 && fy1 == ty1 && fx2 == tx2 && fy2 == ty2)) {
+            return;
+        }
+        final char[] q = node.quantized;
+        for (int i = 0; i < node.size; i++) {
+            double x1 = dequantize(q[4 * i], fx1, fx2);
+            double y1 = dequantize(q[4 * i + 1], fy1, fy2);
+            double x2 = dequantize(q[4 * i + 2], fx1, fx2);
+            double y2 = dequantize(q[4 * i + 3], fy1, fy2);
+            q[4 * i] = quantizeDown(x1, tx1, tx2);
+            q[4 * i + 1] = quantizeDown(y1, ty1, ty2);
+            q[4 * i + 2] = quantizeUp(x2, tx1, tx2);
+            q[4 * i + 3] = quantizeUp(y2, ty1, ty2);
+            rebase(node.children[i], x1, y1, x2, y2, dequantize(q[4 * i], tx1, tx2), dequantize(q[4 * i + 1], ty1, ty2),
+                    dequantize(q[4 * i + 2], tx1, tx2), dequantize(q[4 * i + 3], ty1, ty2));
+        }
+    }
+
+    /**
+     * Grows the box to take in the entry, going a little past it on each side that grows, but never past the limit
+     */
+    private static void grow(double[] box, double x1, double y1, double x2, double y2, double[] limit) {
+        double slackX = SLACK * (Math.max(box[2], x2) - Math.min(box[0], x1));
+        double slackY = SLACK * (Math.max(box[3], y2) - Math.min(box[1], y1));
+        if (x1 < box[0]) {
+            box[0] = past(x1, -slackX);
+        }
+        if (y1 < box[1]) {
+            box[1] = past(y1, -slackY);
+        }
+        if (x2 > box[2]) {
+            box[2] = past(x2, slackX);
+        }
+        if (y2 > box[3]) {
+            box[3] = past(y2, slackY);
+        }
+        if (limit != null) {
+            box[0] = Math.max(box[0], limit[0]);
+            box[1] = Math.max(box[1], limit[1]);
+            box[2] = Math.min(box[2], limit[2]);
+            box[3] = Math.min(box[3], limit[3]);
+        }
+    }
+
+    private static double past(double edge, double slack) {
+        double moved = edge + slack;
+        return Double.isFinite(moved) ? moved : edge;
+    }
+
+    private static boolean contains(double[] box, double x1, double y1, double x2, double y2) {
+        return box[0] <= x1 && box[1] <= y1 && x2 <= box[2] && y2 <= box[3];
+    }
+
+    // Stores the inner box (at the offset) in the outer box's 16-bit grid, rounded outwards
+    private static void quantize(double[] inner, int offset, double[] outer, char[] quantized, int index) {
+        quantized[index] = quantizeDown(inner[offset], outer[0], outer[2]);
+        quantized[index + 1] = quantizeDown(inner[offset + 1], outer[1], outer[3]);
+        quantized[index + 2] = quantizeUp(inner[offset + 2], outer[0], outer[2]);
+        quantized[index + 3] = quantizeUp(inner[offset + 3], outer[1], outer[3]);
+    }
+
+    // Writes the box that a quantized box stands for inside the outer box into result at the offset
+    private static void dequantize(char[] quantized, int index, double[] outer, double[] result, int offset) {
+        result[offset] = dequantize(quantized[index], outer[0], outer[2]);
+        result[offset + 1] = dequantize(quantized[index + 1], outer[1], outer[3]);
+        result[offset + 2] = dequantize(quantized[index + 2], outer[0], outer[2]);
+        result[offset + 3] = dequantize(quantized[index + 3], outer[1], outer[3]);
+    }
+
+    private static double dequantize(int level, double min, double max) {
+        return level == LEVELS ? max : Math.min(max, min + (max - min) / LEVELS * level);
+    }
+
+    // The largest level at or below the value, or 0. The division only estimates it: rounding can put it a level off,
+    // or many levels off when the box is tiny next to its coordinates and neighbouring levels dequantize the same.
+    private static char quantizeDown(double value, double min, double max) {
+        if (!(max > min)) {
+            return 0;
+        }
+        int level = (int) Math.max(0, Math.min(LEVELS, Math.floor((value - min) / (max - min) * LEVELS)));
+        int low = 0;
+        int high = LEVELS;
+        if (dequantize(level, min, max) <= value) {
+            if (level == LEVELS || dequantize(level + 1, min, max) > value) {
+                return (char) level;
+            }
+            low = level + 1;
+        } else {
+            high = level - 1;
+        }
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (dequantize(mid, min, max) <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (char) low;
+    }
+
+    // The smallest level at or above the value, or LEVELS
+    private static char quantizeUp(double value, double min, double max) {
+        if (!(max > min)) {
+            return LEVELS;
+        }
+        int level = (int) Math.max(0, Math.min(LEVELS, Math.ceil((value - min) / (max - min) * LEVELS)));
+        int low = 0;
+        int high = LEVELS;
+        if (dequantize(level, min, max) >= value) {
+            if (level == 0 || dequantize(level - 1, min, max) < value) {
+                return (char) level;
+            }
+            high = level - 1;
+        } else {
+            low = level + 1;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dequantize(mid, min, max) >= value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return (char) Math.min(low, LEVELS);
+    }
+
+    private static double area(double x1, double y1, double x2, double y2) {
+        return (x2 - x1) * (y2 - y1);
+    }
+
+    public Rectangle2D getBounds() {
+        if (size == 0) {
+            return new Rectangle2D.Double();
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
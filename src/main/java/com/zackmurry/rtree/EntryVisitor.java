@@ -0,0 +1,17 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+
+/**
+ * Callback for traversals that can be stopped early
+ * @param <T> Type of value stored in the tree
+ */
+@FunctionalInterface
+public interface EntryVisitor<T> {
+
+    /**
+     * @return false to stop the traversal
+     */
+    boolean visit(Rectangle bounds, T value);
+
+}
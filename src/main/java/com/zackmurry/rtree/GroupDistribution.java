@@ -0,0 +1,103 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Assigns the remaining rectangles of a Guttman split to one of two seeded groups
+ */
+class GroupDistribution {
+
+    private final List<Rectangle> bounds;
+    private final int minEntries;
+    private final boolean[] assigned;
+    private final boolean[] second;
+    private Rectangle group1;
+    private Rectangle group2;
+    private int count1 = 1;
+    private int count2 = 1;
+
+    GroupDistribution(List<Rectangle> bounds, int minEntries, int seed1, int seed2) {
+        this.bounds = bounds;
+        this.minEntries = minEntries;
+        this.assigned = new boolean[bounds.size()];
+        this.second = new boolean[bounds.size()];
+        assigned[seed1] = true;
+        assigned[seed2] = true;
+        second[seed2] = true;
+        group1 = new Rectangle(bounds.get(seed1));
+        group2 = new Rectangle(bounds.get(seed2));
+    }
+
+    /**
+     * @param pickNext whether to use Guttman's quadratic PickNext (entry with the strongest preference first)
+     *                 or to simply take the remaining entries in order, as the linear split does
+     */
+    boolean[] distribute(boolean pickNext) {
+        int remaining = bounds.size() - 2;
+        while (remaining > 0) {
+            // If one group needs all of the remaining entries to reach the minimum, give them to it
+            if (count1 + remaining == minEntries || count2 + remaining == minEntries) {
+                boolean toSecond = count2 + remaining == minEntries;
+                for (int i = 0; i < bounds.size(); i++) {
+                    if (!assigned[i]) {
+                        assign(i, toSecond);
+                    }
+                }
+                break;
+            }
+            int next = pickNext ? pickNext() : firstUnassigned();
+            long d1 = RTree.enlargement(group1, bounds.get(next));
+            long d2 = RTree.enlargement(group2, bounds.get(next));
+            boolean toSecond;
+            if (d1 != d2) {
+                toSecond = d2 < d1;
+            } else if (RTree.area(group1) != RTree.area(group2)) {
+                toSecond = RTree.area(group2) < RTree.area(group1);
+            } else {
+                toSecond = count2 < count1;
+            }
+            assign(next, toSecond);
+            remaining--;
+        }
+        return second;
+    }
+
+    private void assign(int index, boolean toSecond) {
+        assigned[index] = true;
+        second[index] = toSecond;
+        if (toSecond) {
+            group2.add(bounds.get(index));
+            count2++;
+        } else {
+            group1.add(bounds.get(index));
+            count1++;
+        }
+    }
+
+    private int pickNext() {
+        int next = -1;
+        long maxDiff = -1;
+        for (int i = 0; i < bounds.size(); i++) {
+            if (assigned[i]) {
+                continue;
+            }
+            long diff = Math.abs(RTree.enlargement(group1, bounds.get(i)) - RTree.enlargement(group2, bounds.get(i)));
+            if (diff > maxDiff) {
+                maxDiff = diff;
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    private int firstUnassigned() {
+        for (int i = 0; i < assigned.length; i++) {
+            if (!assigned[i]) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No unassigned entries");
+    }
+
+}
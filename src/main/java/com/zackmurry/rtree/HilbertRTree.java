@@ -0,0 +1,319 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hilbert R-Tree (Kamel and Faloutsos)
+ * https://www.vldb.org/conf/1994/P500.PDF
+ * <p>
+ * Entries are ordered by the Hilbert curve value of their center, and every node tracks the largest Hilbert value
+ * (LHV) below it. Inserts route by that value instead of by area enlargement, so the cost of an insert doesn't
+ * depend on how much the nodes overlap. An overflowing node first shares its entries with a sibling, and only
+ * when both are full are they split into three (2-to-3 splitting), which keeps nodes at least two thirds full.
+ * @param <T> Type of value to store
+ */
+public class HilbertRTree<T> {
+
+    // Number of siblings an overflowing node shares its entries with before splitting, so s nodes split into s + 1
+    private static final int COOPERATING_SIBLINGS = 1;
+
+    private static final class Entry<T> {
+        final Rectangle bounds;
+        final T value;
+        final long hilbertValue;
+
+        Entry(Rectangle bounds, T value, long hilbertValue) {
+            this.bounds = bounds;
+            this.value = value;
+            this.hilbertValue = hilbertValue;
+        }
+    }
+
+    private static final class Node<T> {
+        final boolean leaf;
+        Node<T> parent;
+        Rectangle bounds;
+        // Largest Hilbert value in this subtree
+        long lhv = -1;
+        // Kept in order of Hilbert value (LHV for children)
+        final List<Node<T>> children = new ArrayList<>();
+        final List<Entry<T>> entries = new ArrayList<>();
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        int size() {
+            return leaf ? entries.size() : children.size();
+        }
+
+        void include(Entry<T> entry) {
+            if (bounds == null) {
+                bounds = new Rectangle(entry.bounds);
+            } else {
+                bounds.add(entry.bounds);
+            }
+            lhv = Math.max(lhv, entry.hilbertValue);
+        }
+
+        // Recomputes the bounds and LHV from the node's contents
+        void refresh() {
+            Rectangle result = null;
+            if (leaf) {
+                for (Entry<T> entry : entries) {
+                    if (result == null) {
+                        result = new Rectangle(entry.bounds);
+                    } else {
+                        result.add(entry.bounds);
+                    }
+                }
+                lhv = entries.isEmpty() ? -1 : entries.get(entries.size() - 1).hilbertValue;
+            } else {
+                for (Node<T> child : children) {
+                    if (result == null) {
+                        result = new Rectangle(child.bounds);
+                    } else {
+                        result.add(child.bounds);
+                    }
+                }
+                lhv = children.isEmpty() ? -1 : children.get(children.size() - 1).lhv;
+            }
+            bounds = result;
+        }
+    }
+
+    private final int maxEntries;
+
+    private Node<T> root = new Node<>(true);
+    private int height = 1;
+    private int size = 0;
+
+    public HilbertRTree() {
+        this(RTree.MAX_ENTRIES);
+    }
+
+    public HilbertRTree(int maxEntries) {
+        if (maxEntries < 2) {
+            throw new IllegalArgumentException("Invalid node capacity: max " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    public List<T> search(Rectangle area) {
+        final List<T> results = new ArrayList<>();
+        search(area, results::add);
+        return results;
+    }
+
+    public void search(Rectangle area, Consumer<? super T> consumer) {
+        if (area == null || size == 0) {
+            return;
+        }
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            if (node.leaf) {
+                for (Entry<T> entry : node.entries) {
+                    if (area.intersects(entry.bounds)) {
+                        consumer.accept(entry.value);
+                    }
+                }
+            } else {
+                for (Node<T> child : node.children) {
+                    if (area.intersects(child.bounds)) {
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        Rectangle copy = new Rectangle(bounds);
+        Entry<T> entry = new Entry<>(copy, value, hilbertValue(copy));
+        Node<T> node = root;
+        while (!node.leaf) {
+            node = chooseChild(node, entry.hilbertValue);
+        }
+        int index = node.entries.size();
+        while (index > 0 && node.entries.get(index - 1).hilbertValue > entry.hilbertValue) {
+            index--;
+        }
+        node.entries.add(index, entry);
+        size++;
+
+        // AdjustTree: redistributing doesn't change what a group of siblings covers, so every ancestor only has to
+        // take in the new entry
+        while (node != null) {
+            if (node.size() > maxEntries) {
+                node = handleOverflow(node);
+            } else {
+                node.include(entry);
+                node = node.parent;
+            }
+        }
+    }
+
+    // The first child whose LHV is at least the Hilbert value, which keeps the leaves in Hilbert order
+    private Node<T> chooseChild(Node<T> node, long hilbertValue) {
+        for (Node<T> child : node.children) {
+            if (child.lhv >= hilbertValue) {
+                return child;
+            }
+        }
+        return node.children.get(node.children.size() - 1);
+    }
+
+    /**
+     * Spreads the node's contents over itself and its cooperating siblings, adding one more sibling if they're all full
+     * @return the parent of the redistributed nodes, which has to be adjusted next
+     */
+    private Node<T> handleOverflow(Node<T> node) {
+        Node<T> parent = node.parent;
+        if (parent == null) {
+            // The root has no siblings, so it splits in two under a new root
+            Node<T> newRoot = new Node<>(false);
+            Node<T> sibling = new Node<>(node.leaf);
+            newRoot.children.add(node);
+            newRoot.children.add(sibling);
+            node.parent = newRoot;
+            sibling.parent = newRoot;
+            redistribute(newRoot.children);
+            newRoot.refresh();
+            root = newRoot;
+            height++;
+            return newRoot;
+        }
+        int index = parent.children.indexOf(node);
+        int groupSize = Math.min(COOPERATING_SIBLINGS + 1, parent.children.size());
+        // Cooperate with the siblings to the right, or to the left near the end of the parent
+        int first = Math.max(0, Math.min(index, parent.children.size() - groupSize));
+        int total = 0;
+        for (int i = first; i < first + groupSize; i++) {
+            total += parent.children.get(i).size();
+        }
+        if (total > groupSize * maxEntries) {
+            Node<T> added = new Node<>(node.leaf);
+            added.parent = parent;
+            parent.children.add(first + groupSize, added);
+            groupSize++;
+        }
+        redistribute(parent.children.subList(first, first + groupSize));
+        return parent;
+    }
+
+    // Evenly spreads the contents of consecutive siblings over them, keeping the Hilbert order
+    private void redistribute(List<Node<T>> group) {
+        if (group.get(0).leaf) {
+            List<Entry<T>> all = new ArrayList<>();
+            for (Node<T> node : group) {
+                all.addAll(node.entries);
+                node.entries.clear();
+            }
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).entries.addAll(all.subList(partitionStart(all.size(), group.size(), i), partitionStart(all.size(), group.size(), i + 1)));
+                group.get(i).refresh();
+            }
+        } else {
+            List<Node<T>> all = new ArrayList<>();
+            for (Node<T> node : group) {
+                all.addAll(node.children);
+                node.children.clear();
+            }
+            for (int i = 0; i < group.size(); i++) {
+                Node<T> node = group.get(i);
+                node.children.addAll(all.subList(partitionStart(all.size(), group.size(), i), partitionStart(all.size(), group.size(), i + 1)));
+                for (Node<T> child : node.children) {
+                    child.parent = node;
+                }
+                node.refresh();
+            }
+        }
+    }
+
+    private static int partitionStart(int size, int partitions, int index) {
+        return (int) ((long) size * index / partitions);
+    }
+
+    /**
+     * Position of the rectangle's center along a Hilbert curve covering the whole int plane at half resolution
+     */
+    static long hilbertValue(Rectangle rect) {
+        long x = (Math.min(Integer.MAX_VALUE, rect.x + (long) rect.width / 2) - Integer.MIN_VALUE) >>> 1;
+        long y = (Math.min(Integer.MAX_VALUE, rect.y + (long) rect.height / 2) - Integer.MIN_VALUE) >>> 1;
+        final long n = 1L << 31;
+        long d = 0;
+        for (long s = n / 2; s > 0; s /= 2) {
+            long rx = (x & s) > 0 ? 1 : 0;
+            long ry = (y & s) > 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so that the curve inside it has the standard orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Walks the whole tree to measure how well it is organized
+     */
+    public RTreeStats stats() {
+        long nodes = 0;
+        long slots = 0;
+        long overlap = 0;
+        long deadSpace = 0;
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            nodes++;
+            slots += node.size();
+            List<Rectangle> contents = new ArrayList<>();
+            if (node.leaf) {
+                for (Entry<T> entry : node.entries) {
+                    contents.add(entry.bounds);
+                }
+            } else {
+                for (Node<T> child : node.children) {
+                    contents.add(child.bounds);
+                    pending.push(child);
+                }
+                for (int i = 0; i < contents.size(); i++) {
+                    for (int j = i + 1; j < contents.size(); j++) {
+                        overlap += RTree.overlap(contents.get(i), contents.get(j));
+                    }
+                }
+            }
+            if (node.bounds != null) {
+                deadSpace += RTree.area(node.bounds) - RTree.unionArea(contents);
+            }
+        }
+        return new RTreeStats(size, height, nodes, (double) slots / (nodes * maxEntries), overlap, deadSpace);
+    }
+
+    public Rectangle getBounds() {
+        return root.bounds == null ? new Rectangle(0, 0, 0, 0) : new Rectangle(root.bounds);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
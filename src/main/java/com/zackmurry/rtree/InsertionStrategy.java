@@ -0,0 +1,48 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Decides where new entries go and how overflowing nodes are split
+ */
+public interface InsertionStrategy {
+
+    /**
+     * Picks the child that should receive a new entry. The default is Guttman's ChooseLeaf:
+     * the child needing the least area enlargement, with ties going to the smallest child.
+     * @param childBounds bounds of each child of the node being descended
+     * @param childrenAreLeaves whether the children are leaves
+     * @return index of the chosen child
+     */
+    default int chooseSubtree(List<Rectangle> childBounds, Rectangle bounds, boolean childrenAreLeaves) {
+        int best = -1;
+        long leastEnlargement = Long.MAX_VALUE;
+        long leastArea = Long.MAX_VALUE;
+        for (int i = 0; i < childBounds.size(); i++) {
+            Rectangle child = childBounds.get(i);
+            long area = RTree.area(child);
+            long enlargement = RTree.enlargement(child, bounds);
+            if (enlargement < leastEnlargement || (enlargement == leastEnlargement && area < leastArea)) {
+                leastEnlargement = enlargement;
+                leastArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits the bounds of an overflowing node into two groups of at least minEntries each
+     * @return for each index, whether it goes to the second group
+     */
+    boolean[] split(List<Rectangle> bounds, int minEntries);
+
+    /**
+     * Whether the first overflow on each level during an insert should reinsert some entries instead of splitting
+     */
+    default boolean forcedReinsert() {
+        return false;
+    }
+
+}
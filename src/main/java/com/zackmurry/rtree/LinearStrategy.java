@@ -0,0 +1,65 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Guttman's linear split: cheaper than the quadratic split, at the cost of more overlap
+ * http://www-db.deis.unibo.it/courses/SI-LS/papers/Gut84.pdf
+ */
+public class LinearStrategy implements InsertionStrategy {
+
+    @Override
+    public boolean[] split(List<Rectangle> bounds, int minEntries) {
+        // Pick seeds: the pair with the greatest normalized separation along either axis
+        int[] xSeeds = extremes(bounds, true);
+        int[] ySeeds = extremes(bounds, false);
+        double xSeparation = separation(bounds, xSeeds, true) / Math.max(1.0, extent(bounds, true));
+        double ySeparation = separation(bounds, ySeeds, false) / Math.max(1.0, extent(bounds, false));
+        int[] seeds = xSeparation >= ySeparation ? xSeeds : ySeeds;
+        if (seeds[0] == seeds[1]) {
+            // Every rectangle is identical along the axis, so any pair will do
+            seeds = new int[] { 0, 1 };
+        }
+        return new GroupDistribution(bounds, minEntries, seeds[0], seeds[1]).distribute(false);
+    }
+
+    // Index of the rectangle with the highest low side and the one with the lowest high side
+    private static int[] extremes(List<Rectangle> bounds, boolean xAxis) {
+        int highestLow = 0;
+        int lowestHigh = 0;
+        for (int i = 1; i < bounds.size(); i++) {
+            if (low(bounds.get(i), xAxis) > low(bounds.get(highestLow), xAxis)) {
+                highestLow = i;
+            }
+            if (high(bounds.get(i), xAxis) < high(bounds.get(lowestHigh), xAxis)) {
+                lowestHigh = i;
+            }
+        }
+        return new int[] { lowestHigh, highestLow };
+    }
+
+    private static double separation(List<Rectangle> bounds, int[] seeds, boolean xAxis) {
+        return (double) low(bounds.get(seeds[1]), xAxis) - high(bounds.get(seeds[0]), xAxis);
+    }
+
+    // Length of all the rectangles together along the axis, in longs since it can be longer than an int
+    private static long extent(List<Rectangle> bounds, boolean xAxis) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Rectangle rect : bounds) {
+            min = Math.min(min, low(rect, xAxis));
+            max = Math.max(max, high(rect, xAxis));
+        }
+        return max - min;
+    }
+
+    private static long low(Rectangle rect, boolean xAxis) {
+        return xAxis ? rect.x : rect.y;
+    }
+
+    private static long high(Rectangle rect, boolean xAxis) {
+        return xAxis ? (long) rect.x + rect.width : (long) rect.y + rect.height;
+    }
+
+}
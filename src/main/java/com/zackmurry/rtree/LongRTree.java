@@ -0,0 +1,301 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * R-Tree of rectangles identified by a long, such as a database key. Leaves keep the bounds and IDs of their entries
+ * in primitive arrays, so there is no object per entry and nothing is boxed: an entry takes 24 bytes of a leaf
+ * instead of an {@link RTreeEntry}, a {@link Rectangle} and a boxed value. Searches match {@link RTree#search(Rectangle)}
+ * and pass the IDs they find to a {@link LongConsumer}. Edges are stored as ints, so entries reaching past
+ * Integer.MAX_VALUE are cut off there.
+ * @see PointRTree
+ */
+public class LongRTree {
+
+    private static final class Node {
+        final boolean leaf;
+        int size;
+        // minX, minY, maxX, maxY of each child or entry, with the max edges exclusive. One spare slot for overflow
+        // before a split.
+        final int[] bounds;
+        final Node[] children;
+        final long[] ids;
+
+        Node(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.bounds = new int[4 * capacity];
+            this.children = leaf ? null : new Node[capacity];
+            this.ids = leaf ? new long[capacity] : null;
+        }
+    }
+
+    private static final class Candidate {
+        final double distance;
+        final Node node;
+
+        Candidate(double distance, Node node) {
+            this.distance = distance;
+            this.node = node;
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+
+    private Node root;
+    private int height = 1;
+    private int size = 0;
+
+    // Scratch space reused by every insert so that the insert path doesn't allocate
+    private Node[] path = new Node[1];
+    private int[] pathIndex = new int[1];
+    private final double[] splitBounds;
+    private final byte[] splitGroup;
+
+    public LongRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES);
+    }
+
+    public LongRTree(int minEntries, int maxEntries) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.root = new Node(true, maxEntries + 1);
+        this.splitBounds = new double[4 * (maxEntries + 1)];
+        this.splitGroup = new byte[maxEntries + 1];
+    }
+
+    public long[] search(Rectangle area) {
+        LongStream.Builder results = LongStream.builder();
+        search(area, results);
+        return results.build().toArray();
+    }
+
+    public void search(Rectangle area, LongConsumer consumer) {
+        // Empty rectangles never intersect anything, matching Rectangle.intersects
+        if (area == null || size == 0 || area.width <= 0 || area.height <= 0) {
+            return;
+        }
+        search(root, area.x, area.y, (long) area.x + area.width, (long) area.y + area.height, consumer);
+    }
+
+    // x2 and y2 are exclusive, and in longs so that areas reaching past Integer.MAX_VALUE don't wrap around
+    private void search(Node node, int x1, int y1, long x2, long y2, LongConsumer consumer) {
+        final int[] b = node.bounds;
+        for (int i = 0; i < node.size; i++) {
+            if (x1 < b[4 * i + 2] && b[4 * i] < x2 && y1 < b[4 * i + 3] && b[4 * i + 1] < y2) {
+                if (node.leaf) {
+                    if (b[4 * i] < b[4 * i + 2] && b[4 * i + 1] < b[4 * i + 3]) {
+                        consumer.accept(node.ids[i]);
+                    }
+                } else {
+                    search(node.children[i], x1, y1, x2, y2, consumer);
+                }
+            }
+        }
+    }
+
+    public void nearest(Point p, int k, LongConsumer consumer) {
+        nearest(new Rectangle(p.x, p.y, 0, 0), k, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    /**
+     * Passes the IDs of the k entries closest to the area to the consumer, nearest first, ignoring anything further
+     * away than maxDistance. Distances are measured like {@link RTree#minDistance(Rectangle, Rectangle)}.
+     */
+    public void nearest(Rectangle area, int k, double maxDistance, LongConsumer consumer) {
+        NearestHeap nearest = new NearestHeap(k, maxDistance);
+        long x1 = area.x;
+        long y1 = area.y;
+        long x2 = x1 + area.width;
+        long y2 = y1 + area.height;
+        // Best-first over the nodes, stopping once the next node is further away than the k-th closest entry so far
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.comparingDouble(c -> c.distance));
+        if (size > 0) {
+            queue.add(new Candidate(0, root));
+        }
+        while (!queue.isEmpty() && queue.peek().distance <= nearest.bound()) {
+            Node node = queue.poll().node;
+            final int[] b = node.bounds;
+            for (int i = 0; i < node.size; i++) {
+                double distance = minDistance(x1, y1, x2, y2, b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+                if (node.leaf) {
+                    nearest.offer(distance, node.ids[i]);
+                } else if (distance <= nearest.bound()) {
+                    queue.add(new Candidate(distance, node.children[i]));
+                }
+            }
+        }
+        nearest.drain(consumer);
+    }
+
+    private static double minDistance(long ax1, long ay1, long ax2, long ay2, long bx1, long by1, long bx2, long by2) {
+        double dx = Math.max(0, Math.max(ax1 - bx2, bx1 - ax2));
+        double dy = Math.max(0, Math.max(ay1 - by2, by1 - ay2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    public void insert(Rectangle bounds, long id) {
+        insert(bounds.x, bounds.y, RTree.farEdge(bounds.x, bounds.width), RTree.farEdge(bounds.y, bounds.height), id);
+    }
+
+    /**
+     * Inserts an entry covering x1 to x2 and y1 to y2, with x2 and y2 exclusive
+     */
+    public void insert(int x1, int y1, int x2, int y2, long id) {
+        // Choose leaf, growing each chosen child's bounds on the way down since the entry will end up inside it
+        Node node = root;
+        int depth = 0;
+        while (!node.leaf) {
+            int index = chooseSubtree(node, x1, y1, x2, y2);
+            final int[] b = node.bounds;
+            b[4 * index] = Math.min(b[4 * index], x1);
+            b[4 * index + 1] = Math.min(b[4 * index + 1], y1);
+            b[4 * index + 2] = Math.max(b[4 * index + 2], x2);
+            b[4 * index + 3] = Math.max(b[4 * index + 3], y2);
+            path[depth] = node;
+            pathIndex[depth] = index;
+            depth++;
+            node = node.children[index];
+        }
+
+        int slot = node.size++;
+        node.bounds[4 * slot] = x1;
+        node.bounds[4 * slot + 1] = y1;
+        node.bounds[4 * slot + 2] = x2;
+        node.bounds[4 * slot + 3] = y2;
+        node.ids[slot] = id;
+        size++;
+
+        // Split overflowing nodes from the leaf upwards
+        while (node.size > maxEntries) {
+            Node sibling = split(node);
+            if (depth == 0) {
+                Node newRoot = new Node(false, maxEntries + 1);
+                addChild(newRoot, node);
+                addChild(newRoot, sibling);
+                root = newRoot;
+                height++;
+                path = new Node[height];
+                pathIndex = new int[height];
+                break;
+            }
+            depth--;
+            Node parent = path[depth];
+            setChildBounds(parent, pathIndex[depth], node);
+            addChild(parent, sibling);
+            node = parent;
+        }
+    }
+
+    private int chooseSubtree(Node node, int x1, int y1, int x2, int y2) {
+        final int[] b = node.bounds;
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.size; i++) {
+            double area = area(b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+            double enlargement = area(Math.min(b[4 * i], x1), Math.min(b[4 * i + 1], y1), Math.max(b[4 * i + 2], x2), Math.max(b[4 * i + 3], y2)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                bestEnlargement = enlargement;
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quadratic split, done in place: entries assigned to the second group are moved into a new sibling node and the
+     * remaining entries are compacted at the front of the original node
+     */
+    private Node split(Node node) {
+        final int n = node.size;
+        for (int i = 0; i < 4 * n; i++) {
+            splitBounds[i] = node.bounds[i];
+        }
+        QuadraticSplit.assign(splitBounds, n, minEntries, splitGroup);
+
+        Node sibling = new Node(node.leaf, maxEntries + 1);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (splitGroup[i] == 2) {
+                moveEntry(node, i, sibling, sibling.size++);
+            } else {
+                moveEntry(node, i, node, kept++);
+            }
+        }
+        if (!node.leaf) {
+            // Drop references so that moved children can be collected
+            for (int i = kept; i < n; i++) {
+                node.children[i] = null;
+            }
+        }
+        node.size = kept;
+        return sibling;
+    }
+
+    private static void moveEntry(Node from, int fromIndex, Node to, int toIndex) {
+        System.arraycopy(from.bounds, 4 * fromIndex, to.bounds, 4 * toIndex, 4);
+        if (from.leaf) {
+            to.ids[toIndex] = from.ids[fromIndex];
+        } else {
+            to.children[toIndex] = from.children[fromIndex];
+        }
+    }
+
+    private static void addChild(Node parent, Node child) {
+        int slot = parent.size++;
+        parent.children[slot] = child;
+        setChildBounds(parent, slot, child);
+    }
+
+    private static void setChildBounds(Node parent, int index, Node child) {
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        final int[] b = child.bounds;
+        for (int i = 0; i < child.size; i++) {
+            x1 = Math.min(x1, b[4 * i]);
+            y1 = Math.min(y1, b[4 * i + 1]);
+            x2 = Math.max(x2, b[4 * i + 2]);
+            y2 = Math.max(y2, b[4 * i + 3]);
+        }
+        parent.bounds[4 * index] = x1;
+        parent.bounds[4 * index + 1] = y1;
+        parent.bounds[4 * index + 2] = x2;
+        parent.bounds[4 * index + 3] = y2;
+    }
+
+    private static double area(int x1, int y1, int x2, int y2) {
+        return (double) ((long) x2 - x1) * ((long) y2 - y1);
+    }
+
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return new Rectangle(0, 0, 0, 0);
+        }
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        final int[] b = root.bounds;
+        for (int i = 0; i < root.size; i++) {
+            x1 = Math.min(x1, b[4 * i]);
+            y1 = Math.min(y1, b[4 * i + 1]);
+            x2 = Math.max(x2, b[4 * i + 2]);
+            y2 = Math.max(y2, b[4 * i + 3]);
+        }
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
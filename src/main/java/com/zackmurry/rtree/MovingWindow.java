@@ -0,0 +1,177 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A search window over an {@link RTree} that keeps moving, such as a viewport being panned or a selection being
+ * dragged. Each move reports only the entries that entered and left the window, and only visits nodes that can
+ * hold such entries, which pays off once the window spans many leaves compared to how far it moves. The results
+ * read for recently used windows are cached, so moving back to one of them doesn't traverse the tree at all.
+ * Any change to the tree invalidates the cache, and the next move searches from scratch.
+ * @param <T> Type of value stored in the tree
+ */
+public class MovingWindow<T> {
+
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private final RTree<T> tree;
+    private final Map<Rectangle, List<RTreeEntry<T>>> cache;
+
+    private Rectangle window;
+    private Set<RTreeEntry<T>> results = new LinkedHashSet<>();
+    private int modCount;
+
+    public MovingWindow(RTree<T> tree) {
+        this(tree, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize number of recent windows whose results are kept after being read
+     */
+    public MovingWindow(RTree<T> tree, int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + cacheSize);
+        }
+        this.tree = tree;
+        this.modCount = tree.modCount;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Rectangle, List<RTreeEntry<T>>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public void moveTo(Rectangle area) {
+        moveTo(area, value -> {}, value -> {});
+    }
+
+    /**
+     * Moves the window to the given area
+     * @param entered receives the values of entries that {@link RTree#search(Rectangle)} finds in the new area but
+     *                didn't find in the old one
+     * @param left receives the values of entries that were found in the old area but aren't in the new one
+     */
+    public void moveTo(Rectangle area, Consumer<? super T> entered, Consumer<? super T> left) {
+        boolean stale = tree.modCount != modCount;
+        if (stale) {
+            cache.clear();
+            modCount = tree.modCount;
+        } else if (area.equals(window)) {
+            return;
+        }
+        List<RTreeEntry<T>> cached = cache.get(area);
+        if (cached == null && (window == null || stale)) {
+            cached = search(area);
+        }
+        if (cached != null) {
+            replaceResults(cached, entered, left);
+        } else {
+            update(tree, window, area, entered, left);
+        }
+        window = new Rectangle(area);
+    }
+
+    private List<RTreeEntry<T>> search(Rectangle area) {
+        final List<RTreeEntry<T>> found = new ArrayList<>();
+        collect(tree, area, found);
+        return found;
+    }
+
+    private void collect(RTree<T> node, Rectangle area, List<RTreeEntry<T>> found) {
+        for (RTree<T> child : node.children) {
+            if (area.intersects(child.bounds)) {
+                collect(child, area, found);
+            }
+        }
+        for (RTreeEntry<T> entry : node.entries) {
+            if (area.intersects(entry.bounds)) {
+                found.add(entry);
+            }
+        }
+    }
+
+    // Swaps in a complete set of results, reporting the difference from the current ones
+    private void replaceResults(List<RTreeEntry<T>> entries, Consumer<? super T> entered, Consumer<? super T> left) {
+        Set<RTreeEntry<T>> replacement = new LinkedHashSet<>(entries);
+        for (RTreeEntry<T> entry : results) {
+            if (!replacement.contains(entry)) {
+                left.accept(entry.value);
+            }
+        }
+        for (RTreeEntry<T> entry : replacement) {
+            if (!results.contains(entry)) {
+                entered.accept(entry.value);
+            }
+        }
+        results = replacement;
+    }
+
+    // Visits the nodes that can hold entries found by exactly one of the two areas
+    private void update(RTree<T> node, Rectangle from, Rectangle to, Consumer<? super T> entered, Consumer<? super T> left) {
+        for (RTree<T> child : node.children) {
+            if (reachesOutside(child.bounds, to, from) || reachesOutside(child.bounds, from, to)) {
+                update(child, from, to, entered, left);
+            }
+        }
+        for (RTreeEntry<T> entry : node.entries) {
+            boolean was = from.intersects(entry.bounds);
+            boolean is = to.intersects(entry.bounds);
+            if (is && !was) {
+                results.add(entry);
+                entered.accept(entry.value);
+            } else if (was && !is) {
+                results.remove(entry);
+                left.accept(entry.value);
+            }
+        }
+    }
+
+    /**
+     * Whether the part of the bounds inside the area sticks out of the other area. If it doesn't, every entry
+     * inside the bounds that the area finds is also found by the other one.
+     */
+    private static boolean reachesOutside(Rectangle bounds, Rectangle area, Rectangle other) {
+        if (!area.intersects(bounds)) {
+            return false;
+        }
+        int x1 = Math.max(bounds.x, area.x);
+        int y1 = Math.max(bounds.y, area.y);
+        long x2 = Math.min((long) bounds.x + bounds.width, (long) area.x + area.width);
+        long y2 = Math.min((long) bounds.y + bounds.height, (long) area.y + area.height);
+        return x1 < other.x || y1 < other.y || x2 > (long) other.x + other.width || y2 > (long) other.y + other.height;
+    }
+
+    /**
+     * Values of the entries in the current window. This copies every result, so callers that follow each move should
+     * keep their own results from the callbacks of {@link #moveTo(Rectangle, Consumer, Consumer)} instead.
+     */
+    public List<T> results() {
+        final List<T> values = new ArrayList<>(results.size());
+        if (window == null) {
+            return values;
+        }
+        List<RTreeEntry<T>> snapshot = cache.get(window);
+        if (snapshot == null) {
+            // Copying the results is what makes caching them cost anything, so only windows that are read get cached
+            snapshot = new ArrayList<>(results);
+            cache.put(window, snapshot);
+        }
+        for (RTreeEntry<T> entry : snapshot) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    public Rectangle getWindow() {
+        return window == null ? null : new Rectangle(window);
+    }
+
+}
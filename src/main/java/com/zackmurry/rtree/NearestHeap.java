@@ -0,0 +1,95 @@
+package com.zackmurry.rtree;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * The k closest IDs found so far by a nearest neighbour search, kept in a max-heap on distance in primitive arrays
+ */
+class NearestHeap {
+
+    private final int k;
+    private final double maxDistance;
+    private double[] distances;
+    private long[] ids;
+    private int size = 0;
+
+    NearestHeap(int k, double maxDistance) {
+        this.k = Math.max(0, k);
+        this.maxDistance = maxDistance;
+        this.distances = new double[Math.min(this.k, 64)];
+        this.ids = new long[distances.length];
+    }
+
+    /**
+     * Distance beyond which nothing can make it into the heap anymore
+     */
+    double bound() {
+        if (k == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return size == k ? Math.min(maxDistance, distances[0]) : maxDistance;
+    }
+
+    void offer(double distance, long id) {
+        if (distance > bound() || (size == k && distance == distances[0])) {
+            return;
+        }
+        if (size < k) {
+            if (size == distances.length) {
+                int capacity = (int) Math.min(k, 2L * size);
+                distances = Arrays.copyOf(distances, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+            }
+            // Sift up from the new last slot
+            int i = size++;
+            while (i > 0 && distances[(i - 1) / 2] < distance) {
+                distances[i] = distances[(i - 1) / 2];
+                ids[i] = ids[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            distances[i] = distance;
+            ids[i] = id;
+        } else {
+            siftDown(distance, id, size);
+        }
+    }
+
+    // Puts the entry in place of the root of the first n slots
+    private void siftDown(double distance, long id, int n) {
+        int i = 0;
+        while (2 * i + 1 < n) {
+            int child = 2 * i + 1;
+            if (child + 1 < n && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distances[child] <= distance) {
+                break;
+            }
+            distances[i] = distances[child];
+            ids[i] = ids[child];
+            i = child;
+        }
+        distances[i] = distance;
+        ids[i] = id;
+    }
+
+    /**
+     * Passes the IDs to the consumer nearest first, emptying the heap
+     */
+    void drain(LongConsumer consumer) {
+        // Heap sort: moving the furthest to the end each time leaves the slots in increasing order of distance
+        for (int n = size; n > 1; n--) {
+            double distance = distances[n - 1];
+            long id = ids[n - 1];
+            distances[n - 1] = distances[0];
+            ids[n - 1] = ids[0];
+            siftDown(distance, id, n - 1);
+        }
+        for (int i = 0; i < size; i++) {
+            consumer.accept(ids[i]);
+        }
+        size = 0;
+    }
+
+}
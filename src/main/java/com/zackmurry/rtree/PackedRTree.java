@@ -0,0 +1,251 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * R-Tree whose nodes store the bounds of their children in primitive arrays (one array per coordinate)
+ * instead of one {@link Rectangle} per child. Bounds checks during search read straight out of the
+ * node's arrays, and inserts only allocate when a node has to be split. Edges are stored as ints, so entries
+ * reaching past Integer.MAX_VALUE are cut off there.
+ * @param <T> Type of value to store
+ */
+public class PackedRTree<T> {
+
+    private static final class Node {
+        final boolean leaf;
+        int size;
+        // Struct-of-arrays bounds for each child/entry, with one spare slot for overflow before a split
+        final int[] minX;
+        final int[] minY;
+        final int[] maxX;
+        final int[] maxY;
+        final Node[] children;
+        final Object[] values;
+
+        Node(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.minX = new int[capacity];
+            this.minY = new int[capacity];
+            this.maxX = new int[capacity];
+            this.maxY = new int[capacity];
+            this.children = leaf ? null : new Node[capacity];
+            this.values = leaf ? new Object[capacity] : null;
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+
+    private Node root;
+    private int height = 1;
+    private int size = 0;
+
+    // Scratch space reused by every insert so that the insert path doesn't allocate
+    private Node[] path = new Node[1];
+    private int[] pathIndex = new int[1];
+    private final double[] splitBounds;
+    private final byte[] splitGroup;
+
+    public PackedRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES);
+    }
+
+    public PackedRTree(int minEntries, int maxEntries) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.root = new Node(true, maxEntries + 1);
+        this.splitBounds = new double[4 * (maxEntries + 1)];
+        this.splitGroup = new byte[maxEntries + 1];
+    }
+
+    public List<T> search(Rectangle area) {
+        final List<T> results = new ArrayList<>();
+        // Empty rectangles never intersect anything, matching Rectangle.intersects
+        if (area == null || size == 0 || area.width <= 0 || area.height <= 0) {
+            return results;
+        }
+        search(root, area.x, area.y, (long) area.x + area.width, (long) area.y + area.height, results);
+        return results;
+    }
+
+    // x2 and y2 are exclusive, and in longs so that areas reaching past Integer.MAX_VALUE don't wrap around
+    @SuppressWarnings("unchecked")
+    private void search(Node node, int x1, int y1, long x2, long y2, List<T> results) {
+        for (int i = 0; i < node.size; i++) {
+            if (x1 < node.maxX[i] && node.minX[i] < x2 && y1 < node.maxY[i] && node.minY[i] < y2) {
+                if (node.leaf) {
+                    if (node.minX[i] < node.maxX[i] && node.minY[i] < node.maxY[i]) {
+                        results.add((T) node.values[i]);
+                    }
+                } else {
+                    search(node.children[i], x1, y1, x2, y2, results);
+                }
+            }
+        }
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        insert(bounds.x, bounds.y, RTree.farEdge(bounds.x, bounds.width), RTree.farEdge(bounds.y, bounds.height), value);
+    }
+
+    public void insert(int x1, int y1, int x2, int y2, T value) {
+        // Choose leaf, growing each chosen child's bounds on the way down since the entry will end up inside it
+        Node node = root;
+        int depth = 0;
+        while (!node.leaf) {
+            int index = chooseSubtree(node, x1, y1, x2, y2);
+            node.minX[index] = Math.min(node.minX[index], x1);
+            node.minY[index] = Math.min(node.minY[index], y1);
+            node.maxX[index] = Math.max(node.maxX[index], x2);
+            node.maxY[index] = Math.max(node.maxY[index], y2);
+            path[depth] = node;
+            pathIndex[depth] = index;
+            depth++;
+            node = node.children[index];
+        }
+
+        int slot = node.size++;
+        node.minX[slot] = x1;
+        node.minY[slot] = y1;
+        node.maxX[slot] = x2;
+        node.maxY[slot] = y2;
+        node.values[slot] = value;
+        size++;
+
+        // Split overflowing nodes from the leaf upwards
+        while (node.size > maxEntries) {
+            Node sibling = quadraticSplit(node);
+            if (depth == 0) {
+                Node newRoot = new Node(false, maxEntries + 1);
+                addChild(newRoot, node);
+                addChild(newRoot, sibling);
+                root = newRoot;
+                height++;
+                path = new Node[height];
+                pathIndex = new int[height];
+                break;
+            }
+            depth--;
+            Node parent = path[depth];
+            setChildBounds(parent, pathIndex[depth], node);
+            addChild(parent, sibling);
+            node = parent;
+        }
+    }
+
+    private int chooseSubtree(Node node, int x1, int y1, int x2, int y2) {
+        int best = 0;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+        for (int i = 0; i < node.size; i++) {
+            long area = area(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i]);
+            long enlargement = area(Math.min(node.minX[i], x1), Math.min(node.minY[i], y1), Math.max(node.maxX[i], x2), Math.max(node.maxY[i], y2)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                bestEnlargement = enlargement;
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Guttman's quadratic split, done in place: entries assigned to the second group are moved into a new
+     * sibling node and the remaining entries are compacted at the front of the original node
+     */
+    private Node quadraticSplit(Node node) {
+        final int n = node.size;
+        final byte[] group = splitGroup;
+        for (int i = 0; i < n; i++) {
+            splitBounds[4 * i] = node.minX[i];
+            splitBounds[4 * i + 1] = node.minY[i];
+            splitBounds[4 * i + 2] = node.maxX[i];
+            splitBounds[4 * i + 3] = node.maxY[i];
+        }
+        QuadraticSplit.assign(splitBounds, n, minEntries, group);
+
+        Node sibling = new Node(node.leaf, maxEntries + 1);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (group[i] == 2) {
+                moveEntry(node, i, sibling, sibling.size++);
+            } else {
+                moveEntry(node, i, node, kept++);
+            }
+        }
+        for (int i = kept; i < n; i++) {
+            // Drop references so that moved values/children can be collected
+            if (node.leaf) {
+                node.values[i] = null;
+            } else {
+                node.children[i] = null;
+            }
+        }
+        node.size = kept;
+        return sibling;
+    }
+
+    private static void moveEntry(Node from, int fromIndex, Node to, int toIndex) {
+        to.minX[toIndex] = from.minX[fromIndex];
+        to.minY[toIndex] = from.minY[fromIndex];
+        to.maxX[toIndex] = from.maxX[fromIndex];
+        to.maxY[toIndex] = from.maxY[fromIndex];
+        if (from.leaf) {
+            to.values[toIndex] = from.values[fromIndex];
+        } else {
+            to.children[toIndex] = from.children[fromIndex];
+        }
+    }
+
+    private static void addChild(Node parent, Node child) {
+        int slot = parent.size++;
+        parent.children[slot] = child;
+        setChildBounds(parent, slot, child);
+    }
+
+    private static void setChildBounds(Node parent, int index, Node child) {
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        for (int i = 0; i < child.size; i++) {
+            x1 = Math.min(x1, child.minX[i]);
+            y1 = Math.min(y1, child.minY[i]);
+            x2 = Math.max(x2, child.maxX[i]);
+            y2 = Math.max(y2, child.maxY[i]);
+        }
+        parent.minX[index] = x1;
+        parent.minY[index] = y1;
+        parent.maxX[index] = x2;
+        parent.maxY[index] = y2;
+    }
+
+    private static long area(int x1, int y1, int x2, int y2) {
+        return ((long) x2 - x1) * ((long) y2 - y1);
+    }
+
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return new Rectangle(0, 0, 0, 0);
+        }
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        for (int i = 0; i < root.size; i++) {
+            x1 = Math.min(x1, root.minX[i]);
+            y1 = Math.min(y1, root.minY[i]);
+            x2 = Math.max(x2, root.maxX[i]);
+            y2 = Math.max(y2, root.maxY[i]);
+        }
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,424 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Disk-backed R-Tree. Each node is stored in a fixed-size page of a file, and only a bounded number of pages
+ * are kept in memory at a time (least recently used pages are written back and dropped first). Opening a tree
+ * only reads the header page; nodes are read as searches and inserts reach them.
+ * <p>
+ * Page 0 holds the header. Every other page holds one node:
+ * <pre>
+ * leaf flag (1 byte), entry count (2 bytes), then per entry: x1, y1, x2, y2 (4 bytes each) followed by
+ * either the child's page number (8 bytes) or the value, padded to the codec's maximum size
+ * </pre>
+ * Not thread-safe.
+ * @param <T> Type of value to store
+ */
+public class PagedRTree<T> implements Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final int DEFAULT_CACHE_PAGES = 1024;
+
+    private static final int MAGIC = 0x52545245; // "RTRE"
+    private static final int VERSION = 1;
+    private static final int NODE_HEADER_SIZE = 3;
+    private static final int BOUNDS_SIZE = 4 * Integer.BYTES;
+
+    private static final class Node<T> {
+        final long page;
+        final boolean leaf;
+        final List<Rectangle> bounds = new ArrayList<>();
+        final List<Long> children = new ArrayList<>();
+        final List<T> values = new ArrayList<>();
+        boolean dirty;
+
+        Node(long page, boolean leaf) {
+            this.page = page;
+            this.leaf = leaf;
+        }
+
+        int size() {
+            return bounds.size();
+        }
+
+        Rectangle computeBounds() {
+            Rectangle result = new Rectangle(bounds.get(0));
+            for (Rectangle rect : bounds) {
+                result.add(rect);
+            }
+            return result;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ValueCodec<T> codec;
+    private final int pageSize;
+    private final int cachePages;
+    private final int leafCapacity;
+    private final int internalCapacity;
+    private final InsertionStrategy strategy = new QuadraticStrategy();
+    private final ByteBuffer pageBuffer;
+    // Access-ordered, so iteration starts at the least recently used page
+    private final LinkedHashMap<Long, Node<T>> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long rootPage;
+    private long pageCount;
+    private long size;
+    private int height;
+
+    private PagedRTree(FileChannel channel, ValueCodec<T> codec, int pageSize, int cachePages) {
+        this.channel = channel;
+        this.codec = codec;
+        this.pageSize = pageSize;
+        this.cachePages = cachePages;
+        this.leafCapacity = (pageSize - NODE_HEADER_SIZE) / (BOUNDS_SIZE + codec.maxSize());
+        this.internalCapacity = (pageSize - NODE_HEADER_SIZE) / (BOUNDS_SIZE + Long.BYTES);
+        if (leafCapacity < 4 || cachePages < 1) {
+            throw new IllegalArgumentException("Pages of " + pageSize + " bytes are too small for values of up to " + codec.maxSize() + " bytes");
+        }
+        this.pageBuffer = ByteBuffer.allocateDirect(pageSize);
+    }
+
+    /**
+     * Creates a new, empty tree in the file, replacing anything already in it
+     */
+    public static <T> PagedRTree<T> create(Path file, ValueCodec<T> codec) throws IOException {
+        return create(file, codec, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_PAGES);
+    }
+
+    public static <T> PagedRTree<T> create(Path file, ValueCodec<T> codec, int pageSize, int cachePages) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        PagedRTree<T> tree = new PagedRTree<>(channel, codec, pageSize, cachePages);
+        tree.pageCount = 1;
+        Node<T> root = tree.allocate(true);
+        tree.rootPage = root.page;
+        tree.height = 1;
+        tree.flush();
+        return tree;
+    }
+
+    /**
+     * Opens a tree previously written by this class. Only the header is read up front.
+     */
+    public static <T> PagedRTree<T> open(Path file, ValueCodec<T> codec) throws IOException {
+        return open(file, codec, DEFAULT_CACHE_PAGES);
+    }
+
+    public static <T> PagedRTree<T> open(Path file, ValueCodec<T> codec, int cachePages) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES + 3 * Long.BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Keep reading until the header is complete or the file ends
+        }
+        header.flip();
+        if (header.remaining() < header.capacity() || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not an R-Tree file");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            channel.close();
+            throw new IOException("Unsupported R-Tree file version " + version);
+        }
+        PagedRTree<T> tree = new PagedRTree<>(channel, codec, header.getInt(), cachePages);
+        tree.height = header.getInt();
+        tree.rootPage = header.getLong();
+        tree.pageCount = header.getLong();
+        tree.size = header.getLong();
+        return tree;
+    }
+
+    public List<T> search(Rectangle area) {
+        final List<T> results = new ArrayList<>();
+        search(area, results::add);
+        return results;
+    }
+
+    public void search(Rectangle area, Consumer<? super T> consumer) {
+        if (area != null) {
+            search(rootPage, area, consumer);
+        }
+    }
+
+    private void search(long page, Rectangle area, Consumer<? super T> consumer) {
+        Node<T> node = load(page);
+        evict();
+        if (node.leaf) {
+            for (int i = 0; i < node.size(); i++) {
+                if (area.intersects(node.bounds.get(i))) {
+                    consumer.accept(node.values.get(i));
+                }
+            }
+            return;
+        }
+        // Copy the matching children first, since the node can be evicted while its subtrees are searched
+        List<Long> matches = new ArrayList<>();
+        for (int i = 0; i < node.size(); i++) {
+            if (area.intersects(node.bounds.get(i))) {
+                matches.add(node.children.get(i));
+            }
+        }
+        for (long child : matches) {
+            search(child, area, consumer);
+        }
+    }
+
+    public List<T> nearest(Point p, int k) {
+        return nearest(new Rectangle(p.x, p.y, 0, 0), k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Best-first search for the k values closest to the area, as in {@link RTree#nearest(Rectangle, int, double)}
+     */
+    public List<T> nearest(Rectangle area, int k, double maxDistance) {
+        final class Candidate {
+            final double distance;
+            final long page;
+            final T value;
+            final boolean isValue;
+
+            Candidate(double distance, long page, T value, boolean isValue) {
+                this.distance = distance;
+                this.page = page;
+                this.value = value;
+                this.isValue = isValue;
+            }
+        }
+        final List<T> results = new ArrayList<>(Math.min(k, 64));
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.<Candidate>comparingDouble(c -> c.distance).thenComparing(c -> !c.isValue));
+        queue.add(new Candidate(0, rootPage, null, false));
+        while (results.size() < k && !queue.isEmpty() && queue.peek().distance <= maxDistance) {
+            Candidate candidate = queue.poll();
+            if (candidate.isValue) {
+                results.add(candidate.value);
+                continue;
+            }
+            Node<T> node = load(candidate.page);
+            for (int i = 0; i < node.size(); i++) {
+                double distance = RTree.minDistance(area, node.bounds.get(i));
+                if (node.leaf) {
+                    queue.add(new Candidate(distance, 0, node.values.get(i), true));
+                } else {
+                    queue.add(new Candidate(distance, node.children.get(i), null, false));
+                }
+            }
+            evict();
+        }
+        return results;
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        Rectangle itemBounds = new Rectangle(bounds);
+        // Nothing is evicted until the insert is done, so every node on the path stays the one in the cache
+        List<Node<T>> path = new ArrayList<>();
+        List<Integer> pathIndex = new ArrayList<>();
+        Node<T> node = load(rootPage);
+        while (!node.leaf) {
+            int index = strategy.chooseSubtree(node.bounds, itemBounds, path.size() == height - 2);
+            node.bounds.get(index).add(itemBounds);
+            node.dirty = true;
+            path.add(node);
+            pathIndex.add(index);
+            node = load(node.children.get(index));
+        }
+        node.bounds.add(itemBounds);
+        node.values.add(value);
+        node.dirty = true;
+        size++;
+
+        for (int depth = path.size(); node.size() > capacity(node); depth--) {
+            Node<T> sibling = split(node);
+            if (depth == 0) {
+                Node<T> root = allocate(false);
+                root.bounds.add(node.computeBounds());
+                root.children.add(node.page);
+                root.bounds.add(sibling.computeBounds());
+                root.children.add(sibling.page);
+                rootPage = root.page;
+                height++;
+                break;
+            }
+            Node<T> parent = path.get(depth - 1);
+            parent.bounds.set(pathIndex.get(depth - 1), node.computeBounds());
+            parent.bounds.add(sibling.computeBounds());
+            parent.children.add(sibling.page);
+            node = parent;
+        }
+        evict();
+    }
+
+    private Node<T> split(Node<T> node) {
+        int minEntries = Math.max(1, capacity(node) * 2 / 5);
+        boolean[] second = strategy.split(node.bounds, minEntries);
+        Node<T> sibling = allocate(node.leaf);
+        List<Rectangle> bounds = new ArrayList<>(node.bounds);
+        List<Long> children = new ArrayList<>(node.children);
+        List<T> values = new ArrayList<>(node.values);
+        node.bounds.clear();
+        node.children.clear();
+        node.values.clear();
+        for (int i = 0; i < second.length; i++) {
+            Node<T> target = second[i] ? sibling : node;
+            target.bounds.add(bounds.get(i));
+            if (node.leaf) {
+                target.values.add(values.get(i));
+            } else {
+                target.children.add(children.get(i));
+            }
+        }
+        node.dirty = true;
+        return sibling;
+    }
+
+    private int capacity(Node<T> node) {
+        return node.leaf ? leafCapacity : internalCapacity;
+    }
+
+    private Node<T> allocate(boolean leaf) {
+        Node<T> node = new Node<>(pageCount++, leaf);
+        node.dirty = true;
+        cache.put(node.page, node);
+        return node;
+    }
+
+    private Node<T> load(long page) {
+        Node<T> node = cache.get(page);
+        if (node != null) {
+            return node;
+        }
+        try {
+            pageBuffer.clear();
+            while (pageBuffer.hasRemaining()) {
+                if (channel.read(pageBuffer, page * pageSize + pageBuffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file reading page " + page);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pageBuffer.flip();
+        node = new Node<>(page, pageBuffer.get() != 0);
+        int count = Short.toUnsignedInt(pageBuffer.getShort());
+        int slotSize = BOUNDS_SIZE + (node.leaf ? codec.maxSize() : Long.BYTES);
+        for (int i = 0; i < count; i++) {
+            pageBuffer.position(NODE_HEADER_SIZE + i * slotSize);
+            int x1 = pageBuffer.getInt();
+            int y1 = pageBuffer.getInt();
+            int x2 = pageBuffer.getInt();
+            int y2 = pageBuffer.getInt();
+            node.bounds.add(new Rectangle(x1, y1, x2 - x1, y2 - y1));
+            if (node.leaf) {
+                node.values.add(codec.read(pageBuffer));
+            } else {
+                node.children.add(pageBuffer.getLong());
+            }
+        }
+        cache.put(page, node);
+        return node;
+    }
+
+    private void write(Node<T> node) throws IOException {
+        pageBuffer.clear();
+        pageBuffer.put((byte) (node.leaf ? 1 : 0));
+        pageBuffer.putShort((short) node.size());
+        int slotSize = BOUNDS_SIZE + (node.leaf ? codec.maxSize() : Long.BYTES);
+        for (int i = 0; i < node.size(); i++) {
+            pageBuffer.position(NODE_HEADER_SIZE + i * slotSize);
+            Rectangle rect = node.bounds.get(i);
+            pageBuffer.putInt(rect.x);
+            pageBuffer.putInt(rect.y);
+            pageBuffer.putInt(rect.x + rect.width);
+            pageBuffer.putInt(rect.y + rect.height);
+            if (node.leaf) {
+                codec.write(node.values.get(i), pageBuffer);
+                if (pageBuffer.position() > NODE_HEADER_SIZE + (i + 1) * slotSize) {
+                    throw new IllegalStateException("Codec wrote more than its maximum size of " + codec.maxSize() + " bytes");
+                }
+            } else {
+                pageBuffer.putLong(node.children.get(i));
+            }
+        }
+        pageBuffer.position(0);
+        pageBuffer.limit(pageSize);
+        while (pageBuffer.hasRemaining()) {
+            channel.write(pageBuffer, node.page * pageSize + pageBuffer.position());
+        }
+        node.dirty = false;
+    }
+
+    // Writes back and drops least recently used pages until the cache is within its limit
+    private void evict() {
+        Iterator<Map.Entry<Long, Node<T>>> iterator = cache.entrySet().iterator();
+        try {
+            while (cache.size() > cachePages && iterator.hasNext()) {
+                Node<T> node = iterator.next().getValue();
+                if (node.dirty) {
+                    write(node);
+                }
+                iterator.remove();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes every modified page and the header to the file
+     */
+    public void flush() throws IOException {
+        for (Node<T> node : cache.values()) {
+            if (node.dirty) {
+                write(node);
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES + 3 * Long.BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(height);
+        header.putLong(rootPage).putLong(pageCount).putLong(size);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Number of pages currently held in memory
+     */
+    public int cachedPages() {
+        return cache.size();
+    }
+
+}
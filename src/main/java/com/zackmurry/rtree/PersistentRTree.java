@@ -0,0 +1,305 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Persistent (path-copying) R-Tree. Nodes are never modified once created: each insert or delete copies the
+ * nodes on the root-to-leaf path it changes and publishes the new root atomically, so readers can search a
+ * consistent snapshot from any thread without locking.
+ * @param <T> Type of value to store
+ */
+public class PersistentRTree<T> {
+
+    /**
+     * Immutable view of the tree at one point in time
+     */
+    public static final class Snapshot<T> {
+
+        private final Node<T> root;
+
+        private Snapshot(Node<T> root) {
+            this.root = root;
+        }
+
+        public List<T> search(Rectangle area) {
+            final List<T> results = new ArrayList<>();
+            search(area, results::add);
+            return results;
+        }
+
+        public void search(Rectangle area, Consumer<? super T> consumer) {
+            if (area != null) {
+                root.search(area, consumer);
+            }
+        }
+
+        public Rectangle getBounds() {
+            return new Rectangle(root.bounds);
+        }
+
+        public int size() {
+            return root.size;
+        }
+
+    }
+
+    private static final class Node<T> {
+        final Rectangle bounds;
+        final List<Node<T>> children;
+        final List<RTreeEntry<T>> entries;
+        final int size;
+
+        Node(List<Node<T>> children, List<RTreeEntry<T>> entries) {
+            this.children = Collections.unmodifiableList(children);
+            this.entries = Collections.unmodifiableList(entries);
+            Rectangle bounds = null;
+            int size = entries.size();
+            for (Node<T> child : children) {
+                bounds = bounds == null ? new Rectangle(child.bounds) : bounds.union(child.bounds);
+                size += child.size;
+            }
+            for (RTreeEntry<T> entry : entries) {
+                bounds = bounds == null ? new Rectangle(entry.bounds) : bounds.union(entry.bounds);
+            }
+            this.bounds = bounds == null ? new Rectangle(0, 0, 0, 0) : bounds;
+            this.size = size;
+        }
+
+        boolean isLeaf() {
+            return children.isEmpty();
+        }
+
+        int nodeSize() {
+            return children.size() + entries.size();
+        }
+
+        void search(Rectangle area, Consumer<? super T> consumer) {
+            for (Node<T> child : children) {
+                if (area.intersects(child.bounds)) {
+                    child.search(area, consumer);
+                }
+            }
+            for (RTreeEntry<T> entry : entries) {
+                if (area.intersects(entry.bounds)) {
+                    consumer.accept(entry.value);
+                }
+            }
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+    private final InsertionStrategy strategy;
+    private final AtomicReference<Node<T>> root = new AtomicReference<>(new Node<>(List.of(), List.of()));
+
+    public PersistentRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES, new QuadraticStrategy());
+    }
+
+    /**
+     * Forced reinsertion is not used even if the strategy asks for it, since it would copy far more than one path
+     */
+    public PersistentRTree(int minEntries, int maxEntries, InsertionStrategy strategy) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.strategy = strategy;
+    }
+
+    public Snapshot<T> snapshot() {
+        return new Snapshot<>(root.get());
+    }
+
+    public List<T> search(Rectangle area) {
+        return snapshot().search(area);
+    }
+
+    public void search(Rectangle area, Consumer<? super T> consumer) {
+        snapshot().search(area, consumer);
+    }
+
+    public int size() {
+        return root.get().size;
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        // Copy the bounds so that later changes to the caller's rectangle can't leak into published snapshots
+        RTreeEntry<T> entry = new RTreeEntry<>(new Rectangle(bounds), value);
+        Node<T> current;
+        Node<T> updated;
+        do {
+            current = root.get();
+            updated = insert(current, level(current), entry, null, 0);
+        } while (!root.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return whether the entry was found
+     */
+    public boolean delete(Rectangle bounds, T value) {
+        Node<T> current;
+        Node<T> updated;
+        do {
+            current = root.get();
+            List<Node<T>> orphans = new ArrayList<>();
+            List<Integer> orphanLevels = new ArrayList<>();
+            Node<T> result = delete(current, level(current), true, bounds, value, orphans, orphanLevels);
+            if (result == current) {
+                return false;
+            }
+            // Reinsert the contents of any nodes that became underfull
+            for (int i = 0; i < orphans.size(); i++) {
+                for (RTreeEntry<T> entry : orphans.get(i).entries) {
+                    result = insert(result, level(result), entry, null, 0);
+                }
+                for (Node<T> child : orphans.get(i).children) {
+                    result = insert(result, level(result), null, child, orphanLevels.get(i));
+                }
+            }
+            while (result.children.size() == 1) {
+                result = result.children.get(0);
+            }
+            updated = result;
+        } while (!root.compareAndSet(current, updated));
+        return true;
+    }
+
+    // Returns the new root after inserting either an entry into a leaf or a subtree into a node on targetLevel
+    private Node<T> insert(Node<T> root, int rootLevel, RTreeEntry<T> entry, Node<T> subtree, int targetLevel) {
+        List<Node<T>> replacement = insertInto(root, rootLevel, entry, subtree, targetLevel);
+        if (replacement.size() == 1) {
+            return replacement.get(0);
+        }
+        return new Node<>(replacement, List.of());
+    }
+
+    // Returns copies of the node with the item added: one node, or two if it had to be split
+    private List<Node<T>> insertInto(Node<T> node, int level, RTreeEntry<T> entry, Node<T> subtree, int targetLevel) {
+        if (level == targetLevel) {
+            if (entry != null) {
+                List<RTreeEntry<T>> entries = new ArrayList<>(node.entries);
+                entries.add(entry);
+                return entries.size() > maxEntries ? splitEntries(entries) : List.of(new Node<>(List.of(), entries));
+            }
+            List<Node<T>> children = new ArrayList<>(node.children);
+            children.add(subtree);
+            return children.size() > maxEntries ? splitChildren(children) : List.of(new Node<>(children, List.of()));
+        }
+        Rectangle itemBounds = entry != null ? entry.bounds : subtree.bounds;
+        int index = strategy.chooseSubtree(childBounds(node.children), itemBounds, level == 1);
+        List<Node<T>> replacement = insertInto(node.children.get(index), level - 1, entry, subtree, targetLevel);
+        List<Node<T>> children = new ArrayList<>(node.children);
+        children.set(index, replacement.get(0));
+        if (replacement.size() > 1) {
+            children.add(replacement.get(1));
+        }
+        return children.size() > maxEntries ? splitChildren(children) : List.of(new Node<>(children, List.of()));
+    }
+
+    /**
+     * @return a copy of the node without the entry, the node itself if the entry isn't under it, or null if
+     * the node became underfull and was dropped (in which case it's added to orphans)
+     */
+    private Node<T> delete(Node<T> node, int level, boolean isRoot, Rectangle bounds, T value, List<Node<T>> orphans, List<Integer> orphanLevels) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.entries.size(); i++) {
+                RTreeEntry<T> entry = node.entries.get(i);
+                if (entry.bounds.equals(bounds) && Objects.equals(entry.value, value)) {
+                    List<RTreeEntry<T>> entries = new ArrayList<>(node.entries);
+                    entries.remove(i);
+                    return condense(new Node<>(List.of(), entries), level, isRoot, orphans, orphanLevels);
+                }
+            }
+            return node;
+        }
+        for (int i = 0; i < node.children.size(); i++) {
+            Node<T> child = node.children.get(i);
+            if (!RTree.covers(child.bounds, bounds)) {
+                continue;
+            }
+            Node<T> result = delete(child, level - 1, false, bounds, value, orphans, orphanLevels);
+            if (result == child) {
+                continue;
+            }
+            List<Node<T>> children = new ArrayList<>(node.children);
+            if (result == null) {
+                children.remove(i);
+            } else {
+                children.set(i, result);
+            }
+            return condense(new Node<>(children, List.of()), level, isRoot, orphans, orphanLevels);
+        }
+        return node;
+    }
+
+    private Node<T> condense(Node<T> node, int level, boolean isRoot, List<Node<T>> orphans, List<Integer> orphanLevels) {
+        if (isRoot || node.nodeSize() >= minEntries) {
+            return node;
+        }
+        orphans.add(node);
+        orphanLevels.add(level);
+        return null;
+    }
+
+    private List<Node<T>> splitEntries(List<RTreeEntry<T>> entries) {
+        boolean[] second = strategy.split(new AbstractList<>() {
+            @Override
+            public Rectangle get(int index) {
+                return entries.get(index).bounds;
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        }, minEntries);
+        List<RTreeEntry<T>> first = new ArrayList<>();
+        List<RTreeEntry<T>> rest = new ArrayList<>();
+        for (int i = 0; i < second.length; i++) {
+            (second[i] ? rest : first).add(entries.get(i));
+        }
+        return List.of(new Node<>(List.of(), first), new Node<>(List.of(), rest));
+    }
+
+    private List<Node<T>> splitChildren(List<Node<T>> children) {
+        boolean[] second = strategy.split(childBounds(children), minEntries);
+        List<Node<T>> first = new ArrayList<>();
+        List<Node<T>> rest = new ArrayList<>();
+        for (int i = 0; i < second.length; i++) {
+            (second[i] ? rest : first).add(children.get(i));
+        }
+        return List.of(new Node<>(first, List.of()), new Node<>(rest, List.of()));
+    }
+
+    private static <T> List<Rectangle> childBounds(List<Node<T>> children) {
+        return new AbstractList<>() {
+            @Override
+            public Rectangle get(int index) {
+                return children.get(index).bounds;
+            }
+
+            @Override
+            public int size() {
+                return children.size();
+            }
+        };
+    }
+
+    private static <T> int level(Node<T> node) {
+        int level = 0;
+        for (Node<T> n = node; !n.isLeaf(); n = n.children.get(0)) {
+            level++;
+        }
+        return level;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.zackmurry.rtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an 8-bit RGB PNG one row at a time, so that the image never has to be in memory all at once
+ * https://www.w3.org/TR/png/
+ */
+class PngWriter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int IDAT_SIZE = 1 << 16;
+
+    // Row filter types
+    private static final int NONE = 0;
+    private static final int SUB = 1;
+    private static final int UP = 2;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final IdatOutputStream idat = new IdatOutputStream();
+    private final DeflaterOutputStream compressed;
+    private final int width;
+    private final int height;
+    private byte[] previous;
+    private byte[] current;
+    private final byte[][] filtered;
+    private int rows = 0;
+
+    PngWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        }
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.previous = new byte[width * 3];
+        this.current = new byte[width * 3];
+        this.filtered = new byte[3][width * 3 + 1];
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(8); // Bit depth
+        data.writeByte(2); // Color type: RGB
+        data.writeByte(0); // Compression: deflate
+        data.writeByte(0); // Filter method: adaptive
+        data.writeByte(0); // No interlacing
+        writeChunk("IHDR", header.toByteArray(), header.size());
+        this.compressed = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+    }
+
+    /**
+     * Writes the next row from packed RGB ints, such as those of a TYPE_INT_RGB image
+     */
+    void writeRow(int[] pixels, int offset) throws IOException {
+        if (rows == height) {
+            throw new IllegalStateException("All " + height + " rows have already been written");
+        }
+        for (int x = 0; x < width; x++) {
+            int rgb = pixels[offset + x];
+            current[3 * x] = (byte) (rgb >> 16);
+            current[3 * x + 1] = (byte) (rgb >> 8);
+            current[3 * x + 2] = (byte) rgb;
+        }
+        compressed.write(filter(), 0, current.length + 1);
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        rows++;
+    }
+
+    /**
+     * Picks the filter whose output has the smallest sum of absolute values, the heuristic libpng uses
+     */
+    private byte[] filter() {
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int type = NONE; type <= UP; type++) {
+            byte[] row = filtered[type];
+            row[0] = (byte) type;
+            long sum = 0;
+            for (int i = 0; i < current.length; i++) {
+                int predictor = type == SUB ? (i >= 3 ? current[i - 3] : 0) : type == UP ? previous[i] : 0;
+                byte value = (byte) (current[i] - predictor);
+                row[i + 1] = value;
+                sum += Math.abs(value);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    void finish() throws IOException {
+        if (rows != height) {
+            throw new IllegalStateException("Only " + rows + " of " + height + " rows have been written");
+        }
+        compressed.finish();
+        deflater.end();
+        idat.flush();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Splits the compressed stream into IDAT chunks
+    private class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int size = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size > 0) {
+                writeChunk("IDAT", buffer, size);
+                size = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * R-Tree of points identified by a long. Leaves keep just the two coordinates and the ID of each point in primitive
+ * arrays, 16 bytes per point, with no object per entry. Internal nodes keep the bounds of their children like
+ * {@link LongRTree}.
+ * <p>
+ * A point is found by the areas that {@link Rectangle#contains(int, int)} it, so unlike {@link RTree}, zero-size
+ * entries can be searched for.
+ */
+public class PointRTree {
+
+    private static final class Node {
+        final boolean leaf;
+        int size;
+        // Leaves: x, y of each point. One spare slot for overflow before a split.
+        final int[] points;
+        final long[] ids;
+        // Internal nodes: minX, minY, maxX, maxY of the points under each child, all inclusive
+        final int[] bounds;
+        final Node[] children;
+
+        Node(boolean leaf, int capacity) {
+            this.leaf = leaf;
+            this.points = leaf ? new int[2 * capacity] : null;
+            this.ids = leaf ? new long[capacity] : null;
+            this.bounds = leaf ? null : new int[4 * capacity];
+            this.children = leaf ? null : new Node[capacity];
+        }
+    }
+
+    private static final class Candidate {
+        final double distance;
+        final Node node;
+
+        Candidate(double distance, Node node) {
+            this.distance = distance;
+            this.node = node;
+        }
+    }
+
+    private final int minEntries;
+    private final int maxEntries;
+
+    private Node root;
+    private int height = 1;
+    private int size = 0;
+
+    // Scratch space reused by every insert so that the insert path doesn't allocate
+    private Node[] path = new Node[1];
+    private int[] pathIndex = new int[1];
+    private final double[] splitBounds;
+    private final byte[] splitGroup;
+
+    public PointRTree() {
+        this(RTree.MIN_ENTRIES, RTree.MAX_ENTRIES);
+    }
+
+    public PointRTree(int minEntries, int maxEntries) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.root = new Node(true, maxEntries + 1);
+        this.splitBounds = new double[4 * (maxEntries + 1)];
+        this.splitGroup = new byte[maxEntries + 1];
+    }
+
+    public long[] search(Rectangle area) {
+        LongStream.Builder results = LongStream.builder();
+        search(area, results);
+        return results.build().toArray();
+    }
+
+    public void search(Rectangle area, LongConsumer consumer) {
+        if (area == null || size == 0 || area.width <= 0 || area.height <= 0) {
+            return;
+        }
+        search(root, area.x, area.y, (long) area.x + area.width, (long) area.y + area.height, consumer);
+    }
+
+    // x2 and y2 are exclusive
+    private void search(Node node, long x1, long y1, long x2, long y2, LongConsumer consumer) {
+        if (node.leaf) {
+            final int[] p = node.points;
+            for (int i = 0; i < node.size; i++) {
+                if (x1 <= p[2 * i] && p[2 * i] < x2 && y1 <= p[2 * i + 1] && p[2 * i + 1] < y2) {
+                    consumer.accept(node.ids[i]);
+                }
+            }
+            return;
+        }
+        final int[] b = node.bounds;
+        for (int i = 0; i < node.size; i++) {
+            if (x1 <= b[4 * i + 2] && b[4 * i] < x2 && y1 <= b[4 * i + 3] && b[4 * i + 1] < y2) {
+                search(node.children[i], x1, y1, x2, y2, consumer);
+            }
+        }
+    }
+
+    public void nearest(Point p, int k, LongConsumer consumer) {
+        nearest(new Rectangle(p.x, p.y, 0, 0), k, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    /**
+     * Passes the IDs of the k points closest to the area to the consumer, nearest first, ignoring anything further
+     * away than maxDistance. Distances are measured like {@link RTree#minDistance(Rectangle, Rectangle)}.
+     */
+    public void nearest(Rectangle area, int k, double maxDistance, LongConsumer consumer) {
+        NearestHeap nearest = new NearestHeap(k, maxDistance);
+        long x1 = area.x;
+        long y1 = area.y;
+        long x2 = x1 + area.width;
+        long y2 = y1 + area.height;
+        // Best-first over the nodes, stopping once the next node is further away than the k-th closest point so far
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.comparingDouble(c -> c.distance));
+        if (size > 0) {
+            queue.add(new Candidate(0, root));
+        }
+        while (!queue.isEmpty() && queue.peek().distance <= nearest.bound()) {
+            Node node = queue.poll().node;
+            if (node.leaf) {
+                final int[] p = node.points;
+                for (int i = 0; i < node.size; i++) {
+                    nearest.offer(minDistance(x1, y1, x2, y2, p[2 * i], p[2 * i + 1], p[2 * i], p[2 * i + 1]), node.ids[i]);
+                }
+                continue;
+            }
+            final int[] b = node.bounds;
+            for (int i = 0; i < node.size; i++) {
+                double distance = minDistance(x1, y1, x2, y2, b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+                if (distance <= nearest.bound()) {
+                    queue.add(new Candidate(distance, node.children[i]));
+                }
+            }
+        }
+        nearest.drain(consumer);
+    }
+
+    private static double minDistance(long ax1, long ay1, long ax2, long ay2, long bx1, long by1, long bx2, long by2) {
+        double dx = Math.max(0, Math.max(ax1 - bx2, bx1 - ax2));
+        double dy = Math.max(0, Math.max(ay1 - by2, by1 - ay2));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    public void insert(Point p, long id) {
+        insert(p.x, p.y, id);
+    }
+
+    public void insert(int x, int y, long id) {
+        // Choose leaf, growing each chosen child's bounds on the way down since the point will end up inside it
+        Node node = root;
+        int depth = 0;
+        while (!node.leaf) {
+            int index = chooseSubtree(node, x, y);
+            final int[] b = node.bounds;
+            b[4 * index] = Math.min(b[4 * index], x);
+            b[4 * index + 1] = Math.min(b[4 * index + 1], y);
+            b[4 * index + 2] = Math.max(b[4 * index + 2], x);
+            b[4 * index + 3] = Math.max(b[4 * index + 3], y);
+            path[depth] = node;
+            pathIndex[depth] = index;
+            depth++;
+            node = node.children[index];
+        }
+
+        int slot = node.size++;
+        node.points[2 * slot] = x;
+        node.points[2 * slot + 1] = y;
+        node.ids[slot] = id;
+        size++;
+
+        // Split overflowing nodes from the leaf upwards
+        while (node.size > maxEntries) {
+            Node sibling = split(node);
+            if (depth == 0) {
+                Node newRoot = new Node(false, maxEntries + 1);
+                addChild(newRoot, node);
+                addChild(newRoot, sibling);
+                root = newRoot;
+                height++;
+                path = new Node[height];
+                pathIndex = new int[height];
+                break;
+            }
+            depth--;
+            Node parent = path[depth];
+            setChildBounds(parent, pathIndex[depth], node);
+            addChild(parent, sibling);
+            node = parent;
+        }
+    }
+
+    private int chooseSubtree(Node node, int x, int y) {
+        final int[] b = node.bounds;
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < node.size; i++) {
+            double area = area(b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+            double enlargement = area(Math.min(b[4 * i], x), Math.min(b[4 * i + 1], y), Math.max(b[4 * i + 2], x), Math.max(b[4 * i + 3], y)) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                bestEnlargement = enlargement;
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quadratic split, done in place: entries assigned to the second group are moved into a new sibling node and the
+     * remaining entries are compacted at the front of the original node
+     */
+    private Node split(Node node) {
+        final int n = node.size;
+        // Each point counts as the pixel it's in, so that points have an area to compare
+        for (int i = 0; i < n; i++) {
+            if (node.leaf) {
+                splitBounds[4 * i] = node.points[2 * i];
+                splitBounds[4 * i + 1] = node.points[2 * i + 1];
+                splitBounds[4 * i + 2] = node.points[2 * i] + 1.0;
+                splitBounds[4 * i + 3] = node.points[2 * i + 1] + 1.0;
+            } else {
+                splitBounds[4 * i] = node.bounds[4 * i];
+                splitBounds[4 * i + 1] = node.bounds[4 * i + 1];
+                splitBounds[4 * i + 2] = node.bounds[4 * i + 2] + 1.0;
+                splitBounds[4 * i + 3] = node.bounds[4 * i + 3] + 1.0;
+            }
+        }
+        QuadraticSplit.assign(splitBounds, n, minEntries, splitGroup);
+
+        Node sibling = new Node(node.leaf, maxEntries + 1);
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (splitGroup[i] == 2) {
+                moveEntry(node, i, sibling, sibling.size++);
+            } else {
+                moveEntry(node, i, node, kept++);
+            }
+        }
+        if (!node.leaf) {
+            // Drop references so that moved children can be collected
+            for (int i = kept; i < n; i++) {
+                node.children[i] = null;
+            }
+        }
+        node.size = kept;
+        return sibling;
+    }
+
+    private static void moveEntry(Node from, int fromIndex, Node to, int toIndex) {
+        if (from.leaf) {
+            to.points[2 * toIndex] = from.points[2 * fromIndex];
+            to.points[2 * toIndex + 1] = from.points[2 * fromIndex + 1];
+            to.ids[toIndex] = from.ids[fromIndex];
+        } else {
+            System.arraycopy(from.bounds, 4 * fromIndex, to.bounds, 4 * toIndex, 4);
+            to.children[toIndex] = from.children[fromIndex];
+        }
+    }
+
+    private static void addChild(Node parent, Node child) {
+        int slot = parent.size++;
+        parent.children[slot] = child;
+        setChildBounds(parent, slot, child);
+    }
+
+    private static void setChildBounds(Node parent, int index, Node child) {
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        for (int i = 0; i < child.size; i++) {
+            if (child.leaf) {
+                x1 = Math.min(x1, child.points[2 * i]);
+                y1 = Math.min(y1, child.points[2 * i + 1]);
+                x2 = Math.max(x2, child.points[2 * i]);
+                y2 = Math.max(y2, child.points[2 * i + 1]);
+            } else {
+                x1 = Math.min(x1, child.bounds[4 * i]);
+                y1 = Math.min(y1, child.bounds[4 * i + 1]);
+                x2 = Math.max(x2, child.bounds[4 * i + 2]);
+                y2 = Math.max(y2, child.bounds[4 * i + 3]);
+            }
+        }
+        parent.bounds[4 * index] = x1;
+        parent.bounds[4 * index + 1] = y1;
+        parent.bounds[4 * index + 2] = x2;
+        parent.bounds[4 * index + 3] = y2;
+    }
+
+    // Area of the pixels from one corner to the other, both included
+    private static double area(int x1, int y1, int x2, int y2) {
+        return (double) ((long) x2 - x1 + 1) * ((long) y2 - y1 + 1);
+    }
+
+    /**
+     * Smallest rectangle containing every point, with its right and bottom edges just past the furthest points
+     */
+    public Rectangle getBounds() {
+        if (size == 0) {
+            return new Rectangle(0, 0, 0, 0);
+        }
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+        for (int i = 0; i < root.size; i++) {
+            if (root.leaf) {
+                x1 = Math.min(x1, root.points[2 * i]);
+                y1 = Math.min(y1, root.points[2 * i + 1]);
+                x2 = Math.max(x2, root.points[2 * i]);
+                y2 = Math.max(y2, root.points[2 * i + 1]);
+            } else {
+                x1 = Math.min(x1, root.bounds[4 * i]);
+                y1 = Math.min(y1, root.bounds[4 * i + 1]);
+                x2 = Math.max(x2, root.bounds[4 * i + 2]);
+                y2 = Math.max(y2, root.bounds[4 * i + 3]);
+            }
+        }
+        return new Rectangle(x1, y1, x2 - x1 + 1, y2 - y1 + 1);
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
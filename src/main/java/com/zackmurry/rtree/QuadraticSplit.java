@@ -0,0 +1,101 @@
+package com.zackmurry.rtree;
+
+/**
+ * Guttman's quadratic split over bounds stored in a primitive array, for the trees that don't keep a
+ * {@link java.awt.Rectangle} per entry
+ */
+class QuadraticSplit {
+
+    private QuadraticSplit() {
+    }
+
+    /**
+     * Splits the first n boxes into two groups of at least minEntries each
+     * @param bounds minX, minY, maxX, maxY of each box
+     * @param group receives 1 or 2 for each box
+     */
+    static void assign(double[] bounds, int n, int minEntries, byte[] group) {
+        final double[] b = bounds;
+        for (int i = 0; i < n; i++) {
+            group[i] = 0;
+        }
+
+        // Pick seeds: the pair that would waste the most area if grouped together
+        int seed1 = 0;
+        int seed2 = 1;
+        double largestWaste = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n - 1; i++) {
+            double areaI = area(b[4 * i], b[4 * i + 1], b[4 * i + 2], b[4 * i + 3]);
+            for (int j = i + 1; j < n; j++) {
+                double waste = area(Math.min(b[4 * i], b[4 * j]), Math.min(b[4 * i + 1], b[4 * j + 1]), Math.max(b[4 * i + 2], b[4 * j + 2]), Math.max(b[4 * i + 3], b[4 * j + 3]))
+                        - areaI - area(b[4 * j], b[4 * j + 1], b[4 * j + 2], b[4 * j + 3]);
+                if (waste > largestWaste) {
+                    largestWaste = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        group[seed1] = 1;
+        group[seed2] = 2;
+        double[] g1 = {b[4 * seed1], b[4 * seed1 + 1], b[4 * seed1 + 2], b[4 * seed1 + 3]};
+        double[] g2 = {b[4 * seed2], b[4 * seed2 + 1], b[4 * seed2 + 2], b[4 * seed2 + 3]};
+        int count1 = 1;
+        int count2 = 1;
+        int remaining = n - 2;
+
+        while (remaining > 0) {
+            // If one group needs all of the remaining entries to reach the minimum, give them to it
+            if (count1 + remaining == minEntries || count2 + remaining == minEntries) {
+                byte target = (byte) (count1 + remaining == minEntries ? 1 : 2);
+                for (int i = 0; i < n; i++) {
+                    if (group[i] == 0) {
+                        group[i] = target;
+                    }
+                }
+                return;
+            }
+
+            // Pick next: the entry with the greatest preference for one group over the other
+            double area1 = area(g1[0], g1[1], g1[2], g1[3]);
+            double area2 = area(g2[0], g2[1], g2[2], g2[3]);
+            int next = -1;
+            double nextD1 = 0;
+            double nextD2 = 0;
+            double maxDiff = -1;
+            for (int i = 0; i < n; i++) {
+                if (group[i] != 0) {
+                    continue;
+                }
+                double d1 = area(Math.min(g1[0], b[4 * i]), Math.min(g1[1], b[4 * i + 1]), Math.max(g1[2], b[4 * i + 2]), Math.max(g1[3], b[4 * i + 3])) - area1;
+                double d2 = area(Math.min(g2[0], b[4 * i]), Math.min(g2[1], b[4 * i + 1]), Math.max(g2[2], b[4 * i + 2]), Math.max(g2[3], b[4 * i + 3])) - area2;
+                double diff = Math.abs(d1 - d2);
+                if (diff > maxDiff) {
+                    maxDiff = diff;
+                    next = i;
+                    nextD1 = d1;
+                    nextD2 = d2;
+                }
+            }
+            boolean toFirst = nextD1 < nextD2 || (nextD1 == nextD2 && (area1 < area2 || (area1 == area2 && count1 <= count2)));
+            double[] g = toFirst ? g1 : g2;
+            group[next] = (byte) (toFirst ? 1 : 2);
+            if (toFirst) {
+                count1++;
+            } else {
+                count2++;
+            }
+            g[0] = Math.min(g[0], b[4 * next]);
+            g[1] = Math.min(g[1], b[4 * next + 1]);
+            g[2] = Math.max(g[2], b[4 * next + 2]);
+            g[3] = Math.max(g[3], b[4 * next + 3]);
+            remaining--;
+        }
+    }
+
+    // In doubles, which also holds int coordinates exactly and doesn't overflow on boxes spanning the whole int plane
+    private static double area(double x1, double y1, double x2, double y2) {
+        return (x2 - x1) * (y2 - y1);
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Guttman's quadratic split
+ * http://www-db.deis.unibo.it/courses/SI-LS/papers/Gut84.pdf
+ */
+public class QuadraticStrategy implements InsertionStrategy {
+
+    @Override
+    public boolean[] split(List<Rectangle> bounds, int minEntries) {
+        // Pick seeds: the pair that would waste the most area if grouped together
+        int seed1 = 0;
+        int seed2 = 1;
+        long largestWaste = Long.MIN_VALUE;
+        for (int i = 0; i < bounds.size() - 1; i++) {
+            for (int j = i + 1; j < bounds.size(); j++) {
+                Rectangle a = bounds.get(i);
+                Rectangle b = bounds.get(j);
+                long waste = RTree.boundingArea(a, b) - RTree.area(a) - RTree.area(b);
+                if (waste > largestWaste) {
+                    largestWaste = waste;
+                    seed1 = i;
+                    seed2 = j;
+                }
+            }
+        }
+        return new GroupDistribution(bounds, minEntries, seed1, seed2).distribute(true);
+    }
+
+}
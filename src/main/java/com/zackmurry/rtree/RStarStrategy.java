@@ -0,0 +1,128 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * R*-tree insertion: overlap-minimizing ChooseSubtree, margin-based split axis and forced reinsertion
+ * https://infolab.usc.edu/csci599/Fall2001/paper/rstar-tree.pdf
+ */
+public class RStarStrategy implements InsertionStrategy {
+
+    @Override
+    public int chooseSubtree(List<Rectangle> childBounds, Rectangle bounds, boolean childrenAreLeaves) {
+        if (!childrenAreLeaves) {
+            return InsertionStrategy.super.chooseSubtree(childBounds, bounds, false);
+        }
+        // For leaves, pick the child whose overlap with its siblings grows the least
+        int best = -1;
+        long leastOverlapEnlargement = Long.MAX_VALUE;
+        long leastEnlargement = Long.MAX_VALUE;
+        long leastArea = Long.MAX_VALUE;
+        for (int i = 0; i < childBounds.size(); i++) {
+            Rectangle child = childBounds.get(i);
+            Rectangle enlarged = RTree.findSmallestBoundingRect(child, bounds);
+            long overlapEnlargement = 0;
+            for (int j = 0; j < childBounds.size(); j++) {
+                if (i != j) {
+                    overlapEnlargement += RTree.overlap(enlarged, childBounds.get(j)) - RTree.overlap(child, childBounds.get(j));
+                }
+            }
+            long enlargement = RTree.enlargement(child, bounds);
+            long area = RTree.area(child);
+            if (overlapEnlargement < leastOverlapEnlargement
+                    || (overlapEnlargement == leastOverlapEnlargement && enlargement < leastEnlargement)
+                    || (overlapEnlargement == leastOverlapEnlargement && enlargement == leastEnlargement && area < leastArea)) {
+                leastOverlapEnlargement = overlapEnlargement;
+                leastEnlargement = enlargement;
+                leastArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean[] split(List<Rectangle> bounds, int minEntries) {
+        // Choose the axis whose candidate distributions have the smallest total margin
+        int[][] xSorts = sorts(bounds, true);
+        int[][] ySorts = sorts(bounds, false);
+        int[][] axisSorts = marginSum(bounds, xSorts, minEntries) <= marginSum(bounds, ySorts, minEntries) ? xSorts : ySorts;
+
+        // Along that axis, choose the distribution with the least overlap, then the least total area
+        int[] bestSort = null;
+        int bestSplit = -1;
+        long leastOverlap = Long.MAX_VALUE;
+        long leastArea = Long.MAX_VALUE;
+        for (int[] sort : axisSorts) {
+            Rectangle[] prefixes = prefixBounds(bounds, sort);
+            Rectangle[] suffixes = suffixBounds(bounds, sort);
+            for (int k = minEntries; k <= sort.length - minEntries; k++) {
+                long overlap = RTree.overlap(prefixes[k - 1], suffixes[k]);
+                long area = RTree.area(prefixes[k - 1]) + RTree.area(suffixes[k]);
+                if (overlap < leastOverlap || (overlap == leastOverlap && area < leastArea)) {
+                    leastOverlap = overlap;
+                    leastArea = area;
+                    bestSort = sort;
+                    bestSplit = k;
+                }
+            }
+        }
+
+        boolean[] second = new boolean[bounds.size()];
+        for (int i = bestSplit; i < bestSort.length; i++) {
+            second[bestSort[i]] = true;
+        }
+        return second;
+    }
+
+    @Override
+    public boolean forcedReinsert() {
+        return true;
+    }
+
+    // Indices sorted by lower and by upper value along the axis
+    private static int[][] sorts(List<Rectangle> bounds, boolean xAxis) {
+        Comparator<Integer> byLower = Comparator.comparingLong(i -> xAxis ? bounds.get(i).x : bounds.get(i).y);
+        Comparator<Integer> byUpper = Comparator.comparingLong(i -> xAxis ? (long) bounds.get(i).x + bounds.get(i).width : (long) bounds.get(i).y + bounds.get(i).height);
+        return new int[][] {
+                IntStream.range(0, bounds.size()).boxed().sorted(byLower.thenComparing(byUpper)).mapToInt(Integer::intValue).toArray(),
+                IntStream.range(0, bounds.size()).boxed().sorted(byUpper.thenComparing(byLower)).mapToInt(Integer::intValue).toArray()
+        };
+    }
+
+    private static long marginSum(List<Rectangle> bounds, int[][] sorts, int minEntries) {
+        long sum = 0;
+        for (int[] sort : sorts) {
+            Rectangle[] prefixes = prefixBounds(bounds, sort);
+            Rectangle[] suffixes = suffixBounds(bounds, sort);
+            for (int k = minEntries; k <= sort.length - minEntries; k++) {
+                sum += RTree.margin(prefixes[k - 1]) + RTree.margin(suffixes[k]);
+            }
+        }
+        return sum;
+    }
+
+    // prefixes[i] bounds sort[0..i]
+    private static Rectangle[] prefixBounds(List<Rectangle> bounds, int[] sort) {
+        Rectangle[] result = new Rectangle[sort.length];
+        result[0] = new Rectangle(bounds.get(sort[0]));
+        for (int i = 1; i < sort.length; i++) {
+            result[i] = RTree.findSmallestBoundingRect(result[i - 1], bounds.get(sort[i]));
+        }
+        return result;
+    }
+
+    // suffixes[i] bounds sort[i..]
+    private static Rectangle[] suffixBounds(List<Rectangle> bounds, int[] sort) {
+        Rectangle[] result = new Rectangle[sort.length];
+        result[sort.length - 1] = new Rectangle(bounds.get(sort[sort.length - 1]));
+        for (int i = sort.length - 2; i >= 0; i--) {
+            result[i] = RTree.findSmallestBoundingRect(result[i + 1], bounds.get(sort[i]));
+        }
+        return result;
+    }
+
+}
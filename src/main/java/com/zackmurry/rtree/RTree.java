@@ -1,336 +1,1268 @@
 package com.zackmurry.rtree;
 
 import java.awt.*;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
-
-class RTreeEntry<T> {
-
-    Rectangle bounds;
-    T value;
-
-    public RTreeEntry(Rectangle bounds, T value) {
-        this.bounds = bounds;
-        this.value = value;
-    }
-
-    public Rectangle getBounds() {
-        return bounds;
-    }
-
-    @Override
-    public String toString() {
-        return "[ (" + bounds.x + ", " + bounds.y + ") to (" + (bounds.x + bounds.width) + ", " + (bounds.y + bounds.height) + ")" + "; value: " + value + " ]";
-    }
-}
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * R-Tree implementation
  * http://www-db.deis.unibo.it/courses/SI-LS/papers/Gut84.pdf
  * @param <T> Type of value to store
+ * @see DoubleRTree
  */
-// todo: convert ints to doubles
 public class RTree<T> {
 
     public static final int MIN_ENTRIES = 2;
     public static final int MAX_ENTRIES = 4;
 
+    // Fraction of an overflowing node's entries that are reinserted when the strategy uses forced reinsertion
+    private static final double REINSERT_FRACTION = 0.3;
+
+    private static final Object[] NO_AGGREGATES = new Object[0];
+
+    final int minEntries;
+    final int maxEntries;
+    final InsertionStrategy strategy;
+
     Rectangle bounds = new Rectangle(0, 0, 0, 0);
     List<RTree<T>> children = new ArrayList<>();
     List<RTreeEntry<T>> entries = new ArrayList<>();
     RTree<T> parent;
+    // Number of entries in this subtree, and how many of them have empty bounds (which searches never find)
+    int count;
+    int emptyCount;
+    // Total of each of the tree's aggregators over the entries in this subtree that searches can find
+    Object[] aggregates = NO_AGGREGATES;
+
+    // Only the node that operations are called on (the root) reports to its listener and keeps aggregators
+    private RTreeListener listener;
+    private final List<Aggregator<? super T, Object>> aggregators = new ArrayList<>();
+    // Number of changes made through the root, which lets a MovingWindow tell that its results are stale
+    int modCount;
 
     public RTree() {
+        this(MIN_ENTRIES, MAX_ENTRIES);
+    }
+
+    public RTree(int minEntries, int maxEntries) {
+        this(minEntries, maxEntries, new QuadraticStrategy());
+    }
 
+    public RTree(int minEntries, int maxEntries, InsertionStrategy strategy) {
+        if (minEntries < 1 || maxEntries < 2 || minEntries > maxEntries / 2) {
+            throw new IllegalArgumentException("Invalid node capacity: min " + minEntries + ", max " + maxEntries);
+        }
+        this.minEntries = minEntries;
+        this.maxEntries = maxEntries;
+        this.strategy = strategy;
     }
 
     public RTree(Rectangle bounds, List<RTree<T>> children, List<RTreeEntry<T>> entries, RTree<T> parent) {
+        this(parent == null ? MIN_ENTRIES : parent.minEntries, parent == null ? MAX_ENTRIES : parent.maxEntries, parent == null ? new QuadraticStrategy() : parent.strategy);
         this.bounds = bounds;
         this.children = children;
         this.entries = entries;
         this.parent = parent;
+        recount();
+    }
+
+    // Creates a node sharing this tree's node capacity and insertion strategy
+    private RTree<T> newNode(Rectangle bounds, List<RTree<T>> children, List<RTreeEntry<T>> entries) {
+        RTree<T> node = new RTree<>(minEntries, maxEntries, strategy);
+        node.bounds = bounds;
+        node.children = children;
+        node.entries = entries;
+        node.recount();
+        if (!aggregators.isEmpty()) {
+            node.aggregates = new Object[aggregators.size()];
+            recomputeAggregates(node);
+        }
+        return node;
+    }
+
+    /**
+     * Sets the listener that searches, inserts and splits on this tree are reported to, or null to stop reporting
+     */
+    public void setListener(RTreeListener listener) {
+        this.listener = listener;
     }
 
     public List<T> search(Rectangle area) {
+        final List<T> results = new ArrayList<>();
+        search(area, results::add);
+        return results;
+    }
+
+    public void search(Rectangle area, Consumer<? super T> consumer) {
+        visit(area, (bounds, value) -> {
+            consumer.accept(value);
+            return true;
+        });
+    }
+
+    /**
+     * Visits every entry intersecting the area until the visitor returns false
+     * @return true if the whole area was visited, false if the visitor stopped the search
+     */
+    public boolean visit(Rectangle area, EntryVisitor<? super T> visitor) {
         if (area == null) {
-            return new ArrayList<>();
+            return true;
+        }
+        if (listener == null) {
+            return visit(area, visitor, null);
+        }
+        int[] counters = new int[3];
+        boolean completed = visit(area, (bounds, value) -> {
+            counters[2]++;
+            return visitor.visit(bounds, value);
+        }, counters);
+        listener.searched(counters[0], counters[1], counters[2]);
+        return completed;
+    }
+
+    // counters holds the nodes visited, entries tested and results found, or is null if nobody is listening
+    private boolean visit(Rectangle area, EntryVisitor<? super T> visitor, int[] counters) {
+        if (counters != null) {
+            counters[0]++;
+            counters[1] += entries.size();
         }
-        final List<T> results = new ArrayList<>();
         if (!children.isEmpty()) {
             for (RTree<T> child : children) {
-                if (area.intersects(child.bounds)) {
-                    results.addAll(child.search(area));
+                if (area.intersects(child.bounds) && !child.visit(area, visitor, counters)) {
+                    return false;
                 }
             }
         } else { // Is leaf
             for (RTreeEntry<T> entry : entries) {
-                if (area.intersects(entry.bounds)) {
-                    results.add(entry.value);
+                if (area.intersects(entry.bounds) && !visitor.visit(entry.bounds, entry.value)) {
+                    return false;
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * Lazily iterates over the values intersecting the area, only descending into nodes as results are consumed
+     */
+    public Iterator<T> searchIterator(Rectangle area) {
+        return Spliterators.iterator(searchSpliterator(area));
+    }
+
+    /**
+     * Lazy spliterator over the values intersecting the area. Splitting hands off whole subtrees, so it can be
+     * used for parallel streams.
+     */
+    public Spliterator<T> searchSpliterator(Rectangle area) {
+        return new SearchSpliterator<>(this, area);
+    }
+
+    public Stream<T> searchStream(Rectangle area) {
+        return StreamSupport.stream(searchSpliterator(area), false);
+    }
+
+    public Stream<T> parallelSearchStream(Rectangle area) {
+        return StreamSupport.stream(searchSpliterator(area), true);
+    }
+
+    /**
+     * Searches independent subtrees as fork/join tasks in the common pool. Each task collects its own results,
+     * which are only concatenated once at the end.
+     */
+    public List<T> parallelSearch(Rectangle area) {
+        return parallelSearch(area, ForkJoinPool.commonPool());
+    }
+
+    public List<T> parallelSearch(Rectangle area, ForkJoinPool pool) {
+        if (area == null) {
+            return new ArrayList<>();
+        }
+        List<List<T>> chunks = pool.invoke(new SearchTask<>(this, area, level()));
+        int total = 0;
+        for (List<T> chunk : chunks) {
+            total += chunk.size();
+        }
+        final List<T> results = new ArrayList<>(total);
+        for (List<T> chunk : chunks) {
+            results.addAll(chunk);
+        }
         return results;
     }
 
-    public void insert(Rectangle bounds, T value) {
-        RTree<T> l = chooseLeaf(bounds);
-        RTree<T> ll = null;
-        if (children.isEmpty() && entries.isEmpty()) {
-            this.bounds = bounds;
-        }
-        if (l.entries.size() < MAX_ENTRIES) {
-            l.entries.add(new RTreeEntry<>(bounds, value));
-            l.bounds = findSmallestBoundingRect(l.bounds, l.entries.get(l.entries.size() - 1).bounds);
-        } else {
-            l.entries.add(new RTreeEntry<>(bounds, value));
-            var result = quadraticSplit(l.entries);
-            result.get(0).parent = l;
-//            result.get(1).parent = l;
-            l = result.get(0);
-            ll = result.get(1);
-        }
-        adjustTree(l, ll);
-    }
-
-    private void adjustTree(RTree<T> l, RTree<T> ll) {
-        RTree<T> n = l;
-        RTree<T> nn = ll;
-        if (n.parent != null && !n.parent.children.contains(n)) {
-            n.parent.children.add(n);
-        }
-        while (n.parent != null) {
-            RTree<T> p = n.parent;
-            p.bounds = findSmallestBoundingRect(p.bounds, n.bounds);
-
-            if (nn != null) {
-                if (p.children.size() < MAX_ENTRIES) {
-                    p.children.add(nn);
-                    p.bounds = findSmallestBoundingRect(p.bounds, nn.bounds);
-                    nn.parent = p;
-                    n = p;
-                    nn = null;
+    private static class SearchTask<T> extends RecursiveTask<List<List<T>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        // Subtrees estimated to hold fewer entries than this are searched sequentially
+        private static final int PARALLEL_THRESHOLD = 4096;
+
+        private final RTree<T> node;
+        private final Rectangle area;
+        private final int level;
+
+        SearchTask(RTree<T> node, Rectangle area, int level) {
+            this.node = node;
+            this.area = area;
+            this.level = level;
+        }
+
+        @Override
+        protected List<List<T>> compute() {
+            final List<List<T>> chunks = new ArrayList<>();
+            if (node.children.isEmpty() || Math.pow(node.maxEntries, level) < PARALLEL_THRESHOLD) {
+                final List<T> results = new ArrayList<>();
+                node.search(area, results::add);
+                chunks.add(results);
+                return chunks;
+            }
+            List<SearchTask<T>> tasks = new ArrayList<>();
+            for (RTree<T> child : node.children) {
+                if (area.intersects(child.bounds)) {
+                    tasks.add(new SearchTask<>(child, area, level - 1));
+                }
+            }
+            invokeAll(tasks);
+            for (SearchTask<T> task : tasks) {
+                chunks.addAll(task.join());
+            }
+            return chunks;
+        }
+    }
+
+    private static class SearchSpliterator<T> implements Spliterator<T> {
+
+        private final Rectangle area;
+        // Nodes still to visit, in order, all of which intersect the area
+        private final Deque<RTree<T>> pending;
+        private RTree<T> leaf;
+        private int index;
+        private long estimate;
+
+        SearchSpliterator(RTree<T> root, Rectangle area) {
+            this.area = area;
+            this.pending = new ArrayDeque<>();
+            if (area != null) {
+                pending.push(root);
+            }
+            this.estimate = Long.MAX_VALUE;
+        }
+
+        private SearchSpliterator(Rectangle area, Deque<RTree<T>> pending, RTree<T> leaf, int index, long estimate) {
+            this.area = area;
+            this.pending = pending;
+            this.leaf = leaf;
+            this.index = index;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (true) {
+                if (leaf != null) {
+                    while (index < leaf.entries.size()) {
+                        RTreeEntry<T> entry = leaf.entries.get(index++);
+                        if (area.intersects(entry.bounds)) {
+                            action.accept(entry.value);
+                            return true;
+                        }
+                    }
+                    leaf = null;
+                }
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                RTree<T> node = pending.pop();
+                if (!node.children.isEmpty()) {
+                    expand(node);
                 } else {
-                    p.children.add(nn);
-                    var result = quadraticSplitChildren(p.children);
-                    n = result.get(0);
-                    nn = result.get(1);
+                    leaf = node;
+                    index = 0;
                 }
-            } else {
-                n = p;
             }
         }
-        if (nn != null) {
-            if (children.size() >= MAX_ENTRIES) {
-                children.clear();
-                entries.clear();
-                children.add(n);
-                children.add(nn);
-                bounds = findSmallestBoundingRect(children.get(0).bounds, children.get(1).bounds);
-            } else {
-                children.add(nn);
-                bounds = findSmallestBoundingRect(bounds, children.get(children.size() - 1).bounds);
-            }
-        }
-    }
-
-    // todo: figure out how to combine this and quadraticSplit into one method
-    private List<RTree<T>> quadraticSplitChildren(List<RTree<T>> e) {
-        int[] seeds = pickSeedsTree(e);
-        if (seeds.length < 2) {
-            throw new RuntimeException("seeds.length < 2");
-        }
-        List<RTree<T>> result = new ArrayList<>();
-        result.add(new RTree<>());
-        result.add(new RTree<>());
-        result.get(0).children.add(e.remove(seeds[0]));
-        result.get(1).children.add(e.remove(seeds[1] - 1)); // Subtract one to adjust for index decrement from previous removal
-        result.get(0).bounds = new Rectangle(result.get(0).children.get(0).bounds.x, result.get(0).children.get(0).bounds.y, result.get(0).children.get(0).bounds.width, result.get(0).children.get(0).bounds.height);
-        result.get(1).bounds = new Rectangle(result.get(1).children.get(0).bounds.x, result.get(1).children.get(0).bounds.y, result.get(1).children.get(0).bounds.width, result.get(1).children.get(0).bounds.height);
-        while (!e.isEmpty()) {
-            if (MIN_ENTRIES == result.get(0).children.size() + e.size()) {
-                for (RTree<T> child : e) {
-                    result.get(0).children.add(child);
-                    result.get(0).bounds = findSmallestBoundingRect(result.get(0).bounds, child.bounds);
+
+        // Replaces the node with its children that intersect the area, keeping them in search() order
+        private void expand(RTree<T> node) {
+            for (int i = node.children.size() - 1; i >= 0; i--) {
+                RTree<T> child = node.children.get(i);
+                if (area.intersects(child.bounds)) {
+                    pending.push(child);
                 }
-                e.clear();
-                break;
             }
-            if (MIN_ENTRIES == result.get(1).children.size() + e.size()) {
-                for (RTree<T> child : e) {
-                    result.get(1).children.add(child);
-                    result.get(1).bounds = findSmallestBoundingRect(result.get(1).bounds, child.bounds);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            while (pending.size() == 1 && !pending.peek().children.isEmpty()) {
+                expand(pending.pop());
+            }
+            if (pending.size() < 2) {
+                return null;
+            }
+            // Hand off the leaf in progress and the first half of the pending subtrees, since they come first in order
+            Deque<RTree<T>> prefix = new ArrayDeque<>();
+            for (int i = pending.size() / 2; i > 0; i--) {
+                prefix.addLast(pending.pop());
+            }
+            Spliterator<T> split = new SearchSpliterator<>(area, prefix, leaf, index, estimate >>>= 1);
+            leaf = null;
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED;
+        }
+    }
+
+    /**
+     * Calls the consumer with every pair of values from a and b whose bounds intersect. Both trees are descended
+     * together (Brinkhoff, Kriegel and Seeger), so only pairs of nodes whose bounds intersect are ever visited, and
+     * only the children of each node that reach into the other node's bounds are compared.
+     */
+    public static <A, B> void join(RTree<A> a, RTree<B> b, BiConsumer<? super A, ? super B> consumer) {
+        if (a.bounds.intersects(b.bounds)) {
+            joinNodes(a, b, consumer);
+        }
+    }
+
+    /**
+     * Same as {@link #join(RTree, RTree, BiConsumer)}, but joins independent pairs of subtrees as fork/join tasks in the
+     * common pool. The consumer is called from several threads at once, so it has to be thread-safe.
+     */
+    public static <A, B> void parallelJoin(RTree<A> a, RTree<B> b, BiConsumer<? super A, ? super B> consumer) {
+        parallelJoin(a, b, consumer, ForkJoinPool.commonPool());
+    }
+
+    public static <A, B> void parallelJoin(RTree<A> a, RTree<B> b, BiConsumer<? super A, ? super B> consumer, ForkJoinPool pool) {
+        if (a.bounds.intersects(b.bounds)) {
+            pool.invoke(new JoinTask<>(a, b, a.level(), b.level(), consumer));
+        }
+    }
+
+    // The caller has already checked that the two nodes' bounds intersect
+    private static <A, B> void joinNodes(RTree<A> a, RTree<B> b, BiConsumer<? super A, ? super B> consumer) {
+        if (a.children.isEmpty() && b.children.isEmpty()) {
+            for (RTreeEntry<A> entryA : a.entries) {
+                if (!entryA.bounds.intersects(b.bounds)) {
+                    continue;
+                }
+                for (RTreeEntry<B> entryB : b.entries) {
+                    if (entryA.bounds.intersects(entryB.bounds)) {
+                        consumer.accept(entryA.value, entryB.value);
+                    }
                 }
-                e.clear();
-                break;
             }
-            int nextIndex = pickNextTree(e, result.get(0).bounds, result.get(1).bounds);
-            int d1 = requiredAreaEnlargementToIncludeRect(result.get(0).bounds, e.get(nextIndex).bounds);
-            int d2 = requiredAreaEnlargementToIncludeRect(result.get(1).bounds, e.get(nextIndex).bounds);
-            if (d1 > d2) {
-                result.get(0).children.add(e.remove(nextIndex));
-            } else if (d1 < d2) {
-                result.get(1).children.add(e.remove(nextIndex));
-            } else if (result.get(0).bounds.width * result.get(0).bounds.height < result.get(1).bounds.width * result.get(1).bounds.height) {
-                result.get(0).children.add(e.remove(nextIndex));
-            } else {
-                result.get(1).children.add(e.remove(nextIndex));
+        } else if (a.children.isEmpty()) {
+            // The trees have different heights: keep descending the taller one
+            for (RTree<B> childB : b.children) {
+                if (a.bounds.intersects(childB.bounds)) {
+                    joinNodes(a, childB, consumer);
+                }
+            }
+        } else if (b.children.isEmpty()) {
+            for (RTree<A> childA : a.children) {
+                if (childA.bounds.intersects(b.bounds)) {
+                    joinNodes(childA, b, consumer);
+                }
+            }
+        } else {
+            for (RTree<A> childA : a.children) {
+                if (!childA.bounds.intersects(b.bounds)) {
+                    continue;
+                }
+                for (RTree<B> childB : b.children) {
+                    if (childA.bounds.intersects(childB.bounds)) {
+                        joinNodes(childA, childB, consumer);
+                    }
+                }
             }
-            result.get(0).bounds = findSmallestBoundingRect(result.get(0).bounds, result.get(0).children.get(result.get(0).children.size() - 1).bounds);
-            result.get(1).bounds = findSmallestBoundingRect(result.get(1).bounds, result.get(1).children.get(result.get(1).children.size() - 1).bounds);
         }
-        return result;
     }
 
-    private List<RTree<T>> quadraticSplit(List<RTreeEntry<T>> e) {
-        int[] seeds = pickSeeds(e);
-        if (seeds.length < 2) {
-            throw new RuntimeException("seeds.length < 2");
-        }
-        List<RTree<T>> result = new ArrayList<>();
-        result.add(new RTree<>());
-        result.add(new RTree<>());
-        result.get(0).entries.add(e.remove(seeds[0]));
-        result.get(1).entries.add(e.remove(seeds[1] - 1)); // Subtract one to adjust for the index decrement from the previous removal
-        result.get(0).bounds = new Rectangle(result.get(0).entries.get(0).bounds.x, result.get(0).entries.get(0).bounds.y, result.get(0).entries.get(0).bounds.width, result.get(0).entries.get(0).bounds.height);
-        result.get(1).bounds = new Rectangle(result.get(1).entries.get(0).bounds.x, result.get(1).entries.get(0).bounds.y, result.get(1).entries.get(0).bounds.width, result.get(1).entries.get(0).bounds.height);
-        while (!e.isEmpty()) {
-            if (MIN_ENTRIES == result.get(0).entries.size() + e.size()) {
-                for (RTreeEntry<T> entry : e) {
-                    result.get(0).entries.add(entry);
-                    result.get(0).bounds = findSmallestBoundingRect(result.get(0).bounds, entry.bounds);
+    private static class JoinTask<A, B> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Pairs of subtrees estimated to hold fewer entries than this between them are joined sequentially
+        private static final int PARALLEL_THRESHOLD = 4096;
+
+        private final RTree<A> a;
+        private final RTree<B> b;
+        private final int levelA;
+        private final int levelB;
+        private final BiConsumer<? super A, ? super B> consumer;
+
+        JoinTask(RTree<A> a, RTree<B> b, int levelA, int levelB, BiConsumer<? super A, ? super B> consumer) {
+            this.a = a;
+            this.b = b;
+            this.levelA = levelA;
+            this.levelB = levelB;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if ((a.children.isEmpty() && b.children.isEmpty()) || Math.pow(a.maxEntries, levelA) + Math.pow(b.maxEntries, levelB) < PARALLEL_THRESHOLD) {
+                joinNodes(a, b, consumer);
+                return;
+            }
+            // Split the same way joinNodes descends, but into tasks
+            List<JoinTask<A, B>> tasks = new ArrayList<>();
+            List<RTree<A>> nodesA = a.children.isEmpty() ? List.of(a) : a.children;
+            List<RTree<B>> nodesB = b.children.isEmpty() ? List.of(b) : b.children;
+            for (RTree<A> nodeA : nodesA) {
+                if (!nodeA.bounds.intersects(b.bounds)) {
+                    continue;
                 }
-                e.clear();
-                break;
+                for (RTree<B> nodeB : nodesB) {
+                    if (nodeA.bounds.intersects(nodeB.bounds)) {
+                        tasks.add(new JoinTask<>(nodeA, nodeB, nodeA == a ? levelA : levelA - 1, nodeB == b ? levelB : levelB - 1, consumer));
+                    }
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    public List<T> nearest(Point p, int k) {
+        return nearest(new Rectangle(p.x, p.y, 0, 0), k, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds the k values closest to the area, nearest first, ignoring anything further away than maxDistance
+     */
+    public List<T> nearest(Rectangle area, int k, double maxDistance) {
+        final List<T> results = new ArrayList<>(Math.min(k, 64));
+        NearestIterator<T> iterator = new NearestIterator<>(this, area);
+        while (results.size() < k && iterator.hasNext() && iterator.peekDistance() <= maxDistance) {
+            results.add(iterator.next());
+        }
+        return results;
+    }
+
+    public Iterator<T> nearestIterator(Point p) {
+        return nearestIterator(new Rectangle(p.x, p.y, 0, 0));
+    }
+
+    /**
+     * Incrementally returns values in order of increasing distance from the area (best-first search, Hjaltason and Samet).
+     * Nodes are only expanded once everything closer has already been returned.
+     */
+    public Iterator<T> nearestIterator(Rectangle area) {
+        return new NearestIterator<>(this, area);
+    }
+
+    private static class NearestIterator<T> implements Iterator<T> {
+
+        private static class Candidate<T> {
+            final double distance;
+            final RTree<T> node;
+            final RTreeEntry<T> entry;
+
+            Candidate(double distance, RTree<T> node, RTreeEntry<T> entry) {
+                this.distance = distance;
+                this.node = node;
+                this.entry = entry;
             }
-            if (MIN_ENTRIES == result.get(1).entries.size() + e.size()) {
-                for (RTreeEntry<T> entry : e) {
-                    result.get(1).entries.add(entry);
-                    result.get(1).bounds = findSmallestBoundingRect(result.get(1).bounds, entry.bounds);
+        }
+
+        private final Rectangle area;
+        // Entries win ties against nodes so that results are returned as soon as possible
+        private final PriorityQueue<Candidate<T>> queue = new PriorityQueue<>(
+                Comparator.<Candidate<T>>comparingDouble(c -> c.distance).thenComparing(c -> c.entry == null));
+
+        NearestIterator(RTree<T> root, Rectangle area) {
+            this.area = area;
+            queue.add(new Candidate<>(0, root, null));
+            expand();
+        }
+
+        // Expands nodes at the head of the queue until an entry (the next nearest value) is at the head
+        private void expand() {
+            while (!queue.isEmpty() && queue.peek().entry == null) {
+                RTree<T> node = queue.poll().node;
+                for (RTree<T> child : node.children) {
+                    queue.add(new Candidate<>(minDistance(area, child.bounds), child, null));
                 }
-                e.clear();
-                break;
+                for (RTreeEntry<T> entry : node.entries) {
+                    queue.add(new Candidate<>(minDistance(area, entry.bounds), null, entry));
+                }
+            }
+        }
+
+        double peekDistance() {
+            return queue.isEmpty() ? Double.POSITIVE_INFINITY : queue.peek().distance;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            T result = queue.poll().entry.value;
+            expand();
+            return result;
+        }
+    }
+
+    public void insert(Rectangle bounds, T value) {
+        modCount++;
+        if (listener == null) {
+            insert(new RTreeEntry<>(bounds, value), null, 0, new BitSet());
+            return;
+        }
+        long start = System.nanoTime();
+        insert(new RTreeEntry<>(bounds, value), null, 0, new BitSet());
+        listener.inserted(System.nanoTime() - start);
+    }
+
+    /**
+     * Inserts either an entry into a leaf or a subtree into a node on the given level (leaves being level 0)
+     * @param reinsertedLevels levels that have already had a forced reinsert during the current insert
+     */
+    private void insert(RTreeEntry<T> entry, RTree<T> subtree, int level, BitSet reinsertedLevels) {
+        Rectangle itemBounds = entry != null ? entry.bounds : subtree.bounds;
+        RTree<T> node = chooseNode(itemBounds, level);
+        if (entry != null) {
+            node.entries.add(entry);
+            node.addCount(1, isEmpty(entry.bounds) ? 1 : 0);
+        } else {
+            node.children.add(subtree);
+            subtree.parent = node;
+            node.addCount(subtree.count, subtree.emptyCount);
+        }
+        includeAggregates(node, entry, subtree);
+        if (node.nodeSize() == 1) { // Was an empty root
+            node.bounds = new Rectangle(itemBounds);
+        }
+        for (RTree<T> n = node; n != null; n = n.parent) {
+            n.bounds.add(itemBounds);
+        }
+
+        // Overflow treatment, from the node upwards
+        while (node != null && node.nodeSize() > maxEntries) {
+            if (strategy.forcedReinsert() && node.parent != null && !reinsertedLevels.get(level)) {
+                reinsertedLevels.set(level);
+                reinsert(node, level, reinsertedLevels);
+                return;
+            }
+            if (listener != null) {
+                listener.split(level);
+            }
+            node = split(node);
+            level++;
+        }
+    }
+
+    private RTree<T> chooseNode(Rectangle bounds, int level) {
+        RTree<T> node = this;
+        for (int nodeLevel = level(); nodeLevel > level; nodeLevel--) {
+            int index = strategy.chooseSubtree(boundsView(node.children, c -> c.bounds), bounds, nodeLevel == 1);
+            node = node.children.get(index);
+        }
+        return node;
+    }
+
+    /**
+     * Inserts a batch of entries, giving the same search results as inserting them one at a time. The batch is
+     * partitioned by subtree and pushed down level by level, so each node on the way is updated once per batch,
+     * and a node that overflows is split once into as many nodes as it needs. An empty tree is bulk loaded instead.
+     * Splits are reported to the listener, but the inserts aren't timed.
+     */
+    public void insertAll(Collection<RTreeEntry<T>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        modCount++;
+        if (count == 0) {
+            RTree<T> loaded = bulkLoad(batch, this, false);
+            children = loaded.children;
+            entries = loaded.entries;
+            bounds = loaded.bounds;
+            for (RTree<T> child : children) {
+                child.parent = this;
+            }
+            recount();
+            recomputeAggregates(this);
+            return;
+        }
+        int level = level();
+        insertBatch(this, new ArrayList<>(batch), level);
+        while (nodeSize() > maxEntries) {
+            splitBatch(pushDown(), level);
+            level++;
+        }
+    }
+
+    private void insertBatch(RTree<T> node, List<RTreeEntry<T>> batch, int level) {
+        if (level == 0) {
+            node.entries.addAll(batch);
+        } else {
+            // Partition the batch by the child each entry would be inserted into, growing the children as it goes
+            List<RTree<T>> targets = new ArrayList<>(node.children);
+            List<List<RTreeEntry<T>>> groups = new ArrayList<>(targets.size());
+            for (int i = 0; i < targets.size(); i++) {
+                groups.add(new ArrayList<>());
+            }
+            List<Rectangle> targetBounds = boundsView(targets, c -> c.bounds);
+            for (RTreeEntry<T> entry : batch) {
+                int index = strategy.chooseSubtree(targetBounds, entry.bounds, level == 1);
+                groups.get(index).add(entry);
+                targets.get(index).bounds.add(entry.bounds);
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                if (!groups.get(i).isEmpty()) {
+                    insertBatch(targets.get(i), groups.get(i), level - 1);
+                }
+            }
+        }
+        node.bounds = node.computeBounds();
+        node.recount();
+        recomputeAggregates(node);
+        if (node.parent != null && node.nodeSize() > maxEntries) {
+            splitBatch(node, level);
+        }
+    }
+
+    /**
+     * Replaces an overflowing node in its parent with as many nodes as it needs. Up to twice the capacity, the
+     * strategy splits it in two until every part fits, anything larger is packed with STR.
+     */
+    private void splitBatch(RTree<T> node, int level) {
+        if (listener != null) {
+            listener.split(level);
+        }
+        if (node.nodeSize() <= 2 * maxEntries) {
+            List<RTree<T>> siblings = split(node).children;
+            RTree<T> sibling = siblings.get(siblings.size() - 1);
+            if (node.nodeSize() > maxEntries) {
+                splitBatch(node, level);
             }
-            int nextIndex = pickNext(e, result.get(0).bounds, result.get(1).bounds);
-            int d1 = requiredAreaEnlargementToIncludeRect(result.get(0).bounds, e.get(nextIndex).bounds);
-            int d2 = requiredAreaEnlargementToIncludeRect(result.get(1).bounds, e.get(nextIndex).bounds);
-            if (d1 < d2) {
-                result.get(0).entries.add(e.remove(nextIndex));
-            } else if (d1 > d2) {
-                result.get(1).entries.add(e.remove(nextIndex));
-            } else if (result.get(0).bounds.width * result.get(0).bounds.height < result.get(1).bounds.width * result.get(1).bounds.height) {
-                result.get(0).entries.add(e.remove(nextIndex));
+            if (sibling.nodeSize() > maxEntries) {
+                splitBatch(sibling, level);
+            }
+            return;
+        }
+        List<RTree<T>> parts = node.children.isEmpty()
+                ? packLevel(node.entries, e -> e.bounds, this::leafNode, maxEntries, false)
+                : packLevel(node.children, c -> c.bounds, this::parentNode, maxEntries, false);
+        RTree<T> parent = node.parent;
+        parent.children.remove(node);
+        for (RTree<T> part : parts) {
+            part.parent = parent;
+            parent.children.add(part);
+        }
+    }
+
+    // The root object is the handle callers hold onto, so before it splits its contents move down into a new child
+    private RTree<T> pushDown() {
+        RTree<T> child = newNode(bounds, children, entries);
+        for (RTree<T> grandchild : child.children) {
+            grandchild.parent = child;
+        }
+        children = new ArrayList<>();
+        entries = new ArrayList<>();
+        children.add(child);
+        bounds = new Rectangle(child.bounds);
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * Splits an overflowing node in two
+     * @return the parent that the new node was added to
+     */
+    private RTree<T> split(RTree<T> node) {
+        if (node.parent == null) {
+            node = pushDown();
+        }
+        RTree<T> sibling = newNode(null, new ArrayList<>(), new ArrayList<>());
+        if (node.children.isEmpty()) {
+            boolean[] second = strategy.split(boundsView(node.entries, e -> e.bounds), minEntries);
+            List<RTreeEntry<T>> kept = new ArrayList<>();
+            for (int i = 0; i < second.length; i++) {
+                (second[i] ? sibling.entries : kept).add(node.entries.get(i));
+            }
+            node.entries = kept;
+        } else {
+            boolean[] second = strategy.split(boundsView(node.children, c -> c.bounds), minEntries);
+            List<RTree<T>> kept = new ArrayList<>();
+            for (int i = 0; i < second.length; i++) {
+                RTree<T> child = node.children.get(i);
+                if (second[i]) {
+                    sibling.children.add(child);
+                    child.parent = sibling;
+                } else {
+                    kept.add(child);
+                }
+            }
+            node.children = kept;
+        }
+        node.bounds = node.computeBounds();
+        node.recount();
+        recomputeAggregates(node);
+        sibling.bounds = sibling.computeBounds();
+        sibling.recount();
+        recomputeAggregates(sibling);
+        sibling.parent = node.parent;
+        node.parent.children.add(sibling);
+        return node.parent;
+    }
+
+    /**
+     * R* forced reinsertion: removes the entries furthest from the node's center and inserts them again,
+     * closest first, giving them a chance to land in a better node than a split would put them in
+     */
+    private void reinsert(RTree<T> node, int level, BitSet reinsertedLevels) {
+        int count = Math.min(Math.max(1, (int) Math.ceil(maxEntries * REINSERT_FRACTION)), node.nodeSize() - minEntries);
+        double centerX = node.bounds.getCenterX();
+        double centerY = node.bounds.getCenterY();
+        Comparator<Rectangle> furthestFirst = Comparator.comparingDouble((Rectangle r) -> {
+            double dx = r.getCenterX() - centerX;
+            double dy = r.getCenterY() - centerY;
+            return dx * dx + dy * dy;
+        }).reversed();
+
+        List<RTreeEntry<T>> removedEntries = new ArrayList<>();
+        List<RTree<T>> removedChildren = new ArrayList<>();
+        if (node.children.isEmpty()) {
+            node.entries.sort(Comparator.comparing(e -> e.bounds, furthestFirst));
+            removedEntries.addAll(node.entries.subList(0, count));
+            node.entries = new ArrayList<>(node.entries.subList(count, node.entries.size()));
+        } else {
+            node.children.sort(Comparator.comparing(c -> c.bounds, furthestFirst));
+            removedChildren.addAll(node.children.subList(0, count));
+            node.children = new ArrayList<>(node.children.subList(count, node.children.size()));
+        }
+        int removed = removedEntries.size();
+        int removedEmpty = 0;
+        for (RTreeEntry<T> entry : removedEntries) {
+            removedEmpty += isEmpty(entry.bounds) ? 1 : 0;
+        }
+        for (RTree<T> child : removedChildren) {
+            removed += child.count;
+            removedEmpty += child.emptyCount;
+        }
+        node.addCount(-removed, -removedEmpty);
+        for (RTree<T> n = node; n != null; n = n.parent) {
+            n.bounds = n.computeBounds();
+            recomputeAggregates(n);
+        }
+        if (listener != null) {
+            listener.reinserted(level, count);
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (removedEntries.isEmpty()) {
+                insert(null, removedChildren.get(i), level, reinsertedLevels);
             } else {
-                result.get(1).entries.add(e.remove(nextIndex));
+                insert(removedEntries.get(i), null, level, reinsertedLevels);
             }
-            result.get(0).bounds = findSmallestBoundingRect(result.get(0).bounds, result.get(0).entries.get(result.get(0).entries.size() - 1).bounds);
-            result.get(1).bounds = findSmallestBoundingRect(result.get(1).bounds, result.get(1).entries.get(result.get(1).entries.size() - 1).bounds);
         }
-        return result;
     }
 
-    public static Rectangle findSmallestBoundingRect(Rectangle a, Rectangle b) {
-        int x1 = Math.min(a.x, b.x);
-        int y1 = Math.min(a.y, b.y);
-        int x2 = Math.max(a.x + a.width, b.x + b.width);
-        int y2 = Math.max(a.y + a.height, b.y + b.height);
-        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    /**
+     * Removes the entry with the given bounds and value, then condenses the tree
+     * @return whether the entry was found
+     */
+    public boolean delete(Rectangle bounds, T value) {
+        RTree<T> leaf = findLeaf(bounds, value);
+        if (leaf == null) {
+            return false;
+        }
+        modCount++;
+        RTreeEntry<T> entry = leaf.findEntry(bounds, value);
+        leaf.entries.remove(entry);
+        leaf.addCount(-1, isEmpty(entry.bounds) ? -1 : 0);
+        condenseTree(leaf);
+        return true;
     }
 
-    private int pickNextTree(List<RTree<T>> e, Rectangle g1Rect, Rectangle g2Rect) {
-        int maxDiff = Integer.MIN_VALUE;
-        int maxDiffIndex = -1;
-        for (int i = 0; i < e.size(); i++) {
-            int d1 = requiredAreaEnlargementToIncludeRect(g1Rect, e.get(i).bounds);
-            int d2 = requiredAreaEnlargementToIncludeRect(g2Rect, e.get(i).bounds);
-            int dd = Math.abs(d1 - d2);
-            if (dd > maxDiff) {
-                maxDiff = dd;
-                maxDiffIndex = i;
-            }
-        }
-        return maxDiffIndex;
-    }
-    private int pickNext(List<RTreeEntry<T>> e, Rectangle g1Rect, Rectangle g2Rect) {
-        int maxDiff = Integer.MIN_VALUE;
-        int maxDiffIndex = -1;
-        for (int i = 0; i < e.size(); i++) {
-            int d1 = requiredAreaEnlargementToIncludeRect(g1Rect, e.get(i).bounds);
-            int d2 = requiredAreaEnlargementToIncludeRect(g2Rect, e.get(i).bounds);
-            int dd = Math.abs(d1 - d2);
-            if (dd > maxDiff) {
-                maxDiff = dd;
-                maxDiffIndex = i;
-            }
-        }
-        return maxDiffIndex;
-    }
-
-    private int[] pickSeedsTree(List<RTree<T>> e) {
-        final int[] result = new int[2];
-        int largestD = Integer.MIN_VALUE;
-        for (int i = 0; i < e.size() - 1; i++) {
-            for (int j = i + 1; j < e.size(); j++) {
-                RTree<T> ei = e.get(i);
-                RTree<T> ej = e.get(j);
-                int rx1 = Math.min(ei.bounds.x, ej.bounds.x);
-                int ry1 = Math.min(ei.bounds.y, ej.bounds.y);
-                int rx2 = Math.max(ei.bounds.x + ei.bounds.width, ej.bounds.x + ej.bounds.width);
-                int ry2 = Math.max(ei.bounds.y + ei.bounds.height, ej.bounds.y + ej.bounds.height);
-                int d = ((rx2 - rx1) * (ry2 - ry1)) - (ei.bounds.width * ei.bounds.width);
-                if (d > largestD) {
-                    largestD = d;
-                    result[0] = i;
-                    result[1] = j;
+    /**
+     * Moves an entry to new bounds. If the new bounds still fit inside the entry's leaf, the entry is updated
+     * in place; otherwise it is deleted and inserted again.
+     * @return whether the entry was found
+     */
+    public boolean update(Rectangle oldBounds, Rectangle newBounds, T value) {
+        RTree<T> leaf = findLeaf(oldBounds, value);
+        if (leaf == null) {
+            return false;
+        }
+        modCount++;
+        RTreeEntry<T> entry = leaf.findEntry(oldBounds, value);
+        if (covers(leaf.bounds, newBounds)) {
+            boolean wasEmpty = isEmpty(entry.bounds);
+            entry.bounds = newBounds;
+            if (wasEmpty != isEmpty(newBounds)) {
+                // Searches will start or stop finding the entry
+                leaf.addCount(0, wasEmpty ? -1 : 1);
+                for (RTree<T> node = leaf; node != null; node = node.parent) {
+                    recomputeAggregates(node);
+                }
+            }
+            // The entry may have moved away from the edge of its leaf, so tighten the bounds until they stop changing
+            for (RTree<T> node = leaf; node != null; node = node.parent) {
+                Rectangle tightened = node.computeBounds();
+                if (tightened.equals(node.bounds)) {
+                    break;
                 }
+                node.bounds = tightened;
             }
+            return true;
         }
-        return result;
+        leaf.entries.remove(entry);
+        leaf.addCount(-1, isEmpty(entry.bounds) ? -1 : 0);
+        condenseTree(leaf);
+        insert(newBounds, value);
+        return true;
     }
-    private int[] pickSeeds(List<RTreeEntry<T>> e) {
-        final int[] result = new int[2];
-        int largestD = Integer.MIN_VALUE;
-        for (int i = 0; i < e.size() - 1; i++) {
-            for (int j = i + 1; j < e.size(); j++) {
-                RTreeEntry<T> ei = e.get(i);
-                RTreeEntry<T> ej = e.get(j);
-                int rx1 = Math.min(ei.bounds.x, ej.bounds.x);
-                int ry1 = Math.min(ei.bounds.y, ej.bounds.y);
-                int rx2 = Math.max(ei.bounds.x + ei.bounds.width, ej.bounds.x + ej.bounds.width);
-                int ry2 = Math.max(ei.bounds.y + ei.bounds.height, ej.bounds.y + ej.bounds.height);
-                int d = ((rx2 - rx1) * (ry2 - ry1)) - (ei.bounds.width * ei.bounds.height);
-                if (d > largestD) {
-                    largestD = d;
-                    result[0] = i;
-                    result[1] = j;
+
+    private RTree<T> findLeaf(Rectangle bounds, T value) {
+        if (children.isEmpty()) {
+            return findEntry(bounds, value) != null ? this : null;
+        }
+        for (RTree<T> child : children) {
+            if (covers(child.bounds, bounds)) {
+                RTree<T> leaf = child.findLeaf(bounds, value);
+                if (leaf != null) {
+                    return leaf;
                 }
             }
         }
-        return result;
+        return null;
     }
 
-    // todo: needs unit testing
-    private RTree<T> chooseLeaf(Rectangle bounds) {
-        RTree<T> node = this;
-        while (!node.children.isEmpty()) { // While not a leaf
-            double leastAreaEnlargement = Double.POSITIVE_INFINITY;
-            RTree<T> leastEnlargementChild = null;
+    private RTreeEntry<T> findEntry(Rectangle bounds, T value) {
+        for (RTreeEntry<T> entry : entries) {
+            if (entry.bounds.equals(bounds) && Objects.equals(entry.value, value)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Guttman's CondenseTree: removes underfull nodes on the path from the leaf to the root, tightens the
+     * bounds of the rest, reinserts the orphaned entries and subtrees, and finally shortens the tree if the
+     * root is left with a single child
+     */
+    private void condenseTree(RTree<T> leaf) {
+        List<RTree<T>> eliminated = new ArrayList<>();
+        List<Integer> eliminatedLevels = new ArrayList<>();
+        RTree<T> node = leaf;
+        int level = 0;
+        while (node.parent != null) {
+            RTree<T> parent = node.parent;
+            if (node.nodeSize() < minEntries) {
+                parent.children.remove(node);
+                parent.addCount(-node.count, -node.emptyCount);
+                node.parent = null;
+                eliminated.add(node);
+                eliminatedLevels.add(level);
+            } else {
+                node.bounds = node.computeBounds();
+                recomputeAggregates(node);
+            }
+            node = parent;
+            level++;
+        }
+        node.bounds = node.computeBounds();
+        recomputeAggregates(node);
+
+        for (int i = 0; i < eliminated.size(); i++) {
+            for (RTreeEntry<T> entry : eliminated.get(i).entries) {
+                insert(entry, null, 0, new BitSet());
+            }
+            for (RTree<T> child : eliminated.get(i).children) {
+                insert(null, child, eliminatedLevels.get(i), new BitSet());
+            }
+        }
+
+        while (children.size() == 1) {
+            RTree<T> child = children.get(0);
+            children = child.children;
+            entries = child.entries;
+            bounds = child.bounds;
+            for (RTree<T> grandchild : children) {
+                grandchild.parent = this;
+            }
+        }
+    }
+
+    private int nodeSize() {
+        return children.size() + entries.size();
+    }
+
+    // Recomputes this node's entry counts from its children and entries
+    void recount() {
+        count = entries.size();
+        emptyCount = 0;
+        for (RTreeEntry<T> entry : entries) {
+            emptyCount += isEmpty(entry.bounds) ? 1 : 0;
+        }
+        for (RTree<T> child : children) {
+            count += child.count;
+            emptyCount += child.emptyCount;
+        }
+    }
+
+    // Adds to the entry counts of this node and all of its ancestors
+    private void addCount(int delta, int emptyDelta) {
+        for (RTree<T> node = this; node != null; node = node.parent) {
+            node.count += delta;
+            node.emptyCount += emptyDelta;
+        }
+    }
+
+    private static boolean isEmpty(Rectangle rect) {
+        return rect.width <= 0 || rect.height <= 0;
+    }
+
+    /**
+     * Starts keeping a total of the aggregator's values in every node, which {@link #aggregate} can then use for
+     * nodes that lie entirely inside the area instead of visiting their entries. The totals are kept up to date
+     * by every later change to the tree.
+     */
+    @SuppressWarnings("unchecked")
+    public void addAggregator(Aggregator<? super T, ?> aggregator) {
+        aggregators.add((Aggregator<? super T, Object>) aggregator);
+        addAggregates(this);
+    }
+
+    private void addAggregates(RTree<T> node) {
+        for (RTree<T> child : node.children) {
+            addAggregates(child);
+        }
+        node.aggregates = new Object[aggregators.size()];
+        recomputeAggregates(node);
+    }
+
+    // Recomputes the node's totals from its children and entries
+    private void recomputeAggregates(RTree<T> node) {
+        for (int i = 0; i < aggregators.size(); i++) {
+            Aggregator<? super T, Object> aggregator = aggregators.get(i);
+            Object total = aggregator.identity();
             for (RTree<T> child : node.children) {
-                double requiredArea = requiredAreaEnlargementToIncludeRect(child.bounds, bounds);
-                if (requiredArea < leastAreaEnlargement || (requiredArea == leastAreaEnlargement && child.bounds.getWidth() * child.bounds.getHeight() < leastEnlargementChild.bounds.getWidth() * leastEnlargementChild.bounds.getHeight())) {
-                    leastAreaEnlargement = requiredArea;
-                    leastEnlargementChild = child;
+                total = aggregator.combine(total, child.aggregates[i]);
+            }
+            for (RTreeEntry<T> entry : node.entries) {
+                if (!isEmpty(entry.bounds)) {
+                    total = aggregator.combine(total, aggregator.of(entry.value));
                 }
             }
-            node = leastEnlargementChild;
+            node.aggregates[i] = total;
+        }
+    }
+
+    // Adds a new entry or subtree to the totals of the node it was added to and all of its ancestors
+    private void includeAggregates(RTree<T> node, RTreeEntry<T> entry, RTree<T> subtree) {
+        if (entry != null && isEmpty(entry.bounds)) {
+            return;
+        }
+        for (int i = 0; i < aggregators.size(); i++) {
+            Aggregator<? super T, Object> aggregator = aggregators.get(i);
+            Object added = entry != null ? aggregator.of(entry.value) : subtree.aggregates[i];
+            for (RTree<T> n = node; n != null; n = n.parent) {
+                n.aggregates[i] = aggregator.combine(n.aggregates[i], added);
+            }
+        }
+    }
+
+    /**
+     * Number of entries that {@link #search(Rectangle)} would find, without building a list of them. Nodes that lie
+     * entirely inside the area contribute their stored count without being visited.
+     */
+    public int count(Rectangle area) {
+        if (area == null || !area.intersects(bounds)) {
+            return 0;
+        }
+        return countIn(area);
+    }
+
+    private int countIn(Rectangle area) {
+        if (covers(area, bounds)) {
+            return count - emptyCount;
+        }
+        int result = 0;
+        for (RTree<T> child : children) {
+            if (area.intersects(child.bounds)) {
+                result += child.countIn(area);
+            }
+        }
+        for (RTreeEntry<T> entry : entries) {
+            if (area.intersects(entry.bounds)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Combines the aggregator's values of the entries that {@link #search(Rectangle)} would find. Nodes that lie
+     * entirely inside the area contribute their stored total without being visited.
+     * @param aggregator an aggregator previously added with {@link #addAggregator}
+     */
+    public <A> A aggregate(Rectangle area, Aggregator<? super T, A> aggregator) {
+        int index = -1;
+        for (int i = 0; i < aggregators.size(); i++) {
+            if (aggregators.get(i) == aggregator) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            throw new IllegalArgumentException("The aggregator hasn't been added to this tree");
+        }
+        if (area == null || !area.intersects(bounds)) {
+            return aggregator.identity();
+        }
+        return aggregateIn(area, aggregator, index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A> A aggregateIn(Rectangle area, Aggregator<? super T, A> aggregator, int index) {
+        if (covers(area, bounds)) {
+            return (A) aggregates[index];
+        }
+        A total = aggregator.identity();
+        for (RTree<T> child : children) {
+            if (area.intersects(child.bounds)) {
+                total = aggregator.combine(total, child.aggregateIn(area, aggregator, index));
+            }
+        }
+        for (RTreeEntry<T> entry : entries) {
+            if (area.intersects(entry.bounds)) {
+                total = aggregator.combine(total, aggregator.of(entry.value));
+            }
+        }
+        return total;
+    }
+
+    // Number of levels below this node
+    int level() {
+        int level = 0;
+        for (RTree<T> node = this; !node.children.isEmpty(); node = node.children.get(0)) {
+            level++;
+        }
+        return level;
+    }
+
+    private Rectangle computeBounds() {
+        if (!children.isEmpty()) {
+            return boundsOf(children, c -> c.bounds);
+        }
+        if (!entries.isEmpty()) {
+            return boundsOf(entries, e -> e.bounds);
+        }
+        return new Rectangle(0, 0, 0, 0);
+    }
+
+    private static <E> List<Rectangle> boundsView(List<E> items, Function<E, Rectangle> boundsFn) {
+        return new AbstractList<>() {
+            @Override
+            public Rectangle get(int index) {
+                return boundsFn.apply(items.get(index));
+            }
+
+            @Override
+            public int size() {
+                return items.size();
+            }
+        };
+    }
+
+    /**
+     * Builds a fully packed tree from the given entries using Sort-Tile-Recursive (STR) packing
+     * https://archive.org/details/nasa_techdoc_19970016975
+     */
+    public static <T> RTree<T> bulkLoad(Collection<RTreeEntry<T>> entries) {
+        return bulkLoad(entries, new RTree<>(), false);
+    }
+
+    /**
+     * Same as {@link #bulkLoad(Collection)}, but sorts and packs the vertical slices in parallel
+     */
+    public static <T> RTree<T> bulkLoadParallel(Collection<RTreeEntry<T>> entries) {
+        return bulkLoad(entries, new RTree<>(), true);
+    }
+
+    /**
+     * Bulk loads a tree whose nodes hold up to maxEntries, using the given strategy for later inserts
+     */
+    public static <T> RTree<T> bulkLoad(Collection<RTreeEntry<T>> entries, int minEntries, int maxEntries, InsertionStrategy strategy) {
+        return bulkLoad(entries, new RTree<>(minEntries, maxEntries, strategy), false);
+    }
+
+    public static <T> RTree<T> bulkLoadParallel(Collection<RTreeEntry<T>> entries, int minEntries, int maxEntries, InsertionStrategy strategy) {
+        return bulkLoad(entries, new RTree<>(minEntries, maxEntries, strategy), true);
+    }
+
+    private static <T> RTree<T> bulkLoad(Collection<RTreeEntry<T>> entries, RTree<T> template, boolean parallel) {
+        if (entries.isEmpty()) {
+            return template;
+        }
+        List<RTree<T>> nodes = packLevel(new ArrayList<>(entries), e -> e.bounds, template::leafNode, template.maxEntries, parallel);
+        while (nodes.size() > 1) {
+            nodes = packLevel(nodes, n -> n.bounds, template::parentNode, template.maxEntries, parallel);
+        }
+        return nodes.get(0);
+    }
+
+    private RTree<T> leafNode(List<RTreeEntry<T>> group) {
+        return newNode(boundsOf(group, e -> e.bounds), new ArrayList<>(), group);
+    }
+
+    private RTree<T> parentNode(List<RTree<T>> group) {
+        RTree<T> node = newNode(boundsOf(group, n -> n.bounds), group, new ArrayList<>());
+        for (RTree<T> child : group) {
+            child.parent = node;
         }
         return node;
     }
 
-    // todo: needs unit testing
-    public static int requiredAreaEnlargementToIncludeRect(Rectangle a, Rectangle b) {
-        Rectangle boundingRect = findSmallestBoundingRect(a, b);
-        return (boundingRect.width * boundingRect.height) - (a.width * a.height);
+    private static <E, T> List<RTree<T>> packLevel(List<E> items, Function<E, Rectangle> boundsFn, Function<List<E>, RTree<T>> nodeFn, int maxEntries, boolean parallel) {
+        int nodeCount = (items.size() + maxEntries - 1) / maxEntries;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        ToLongFunction<E> centerX = e -> 2L * boundsFn.apply(e).x + boundsFn.apply(e).width;
+        ToLongFunction<E> centerY = e -> 2L * boundsFn.apply(e).y + boundsFn.apply(e).height;
+        List<E> sorted = sort(items, Comparator.comparingLong(centerX), parallel);
+
+        // Spread the items evenly over the slices (and each slice evenly over its nodes) so that no node ends up underfull
+        IntStream slices = IntStream.range(0, sliceCount);
+        if (parallel) {
+            slices = slices.parallel();
+        }
+        return slices.mapToObj(i -> {
+            List<E> slice = sort(sorted.subList(partitionStart(sorted.size(), sliceCount, i), partitionStart(sorted.size(), sliceCount, i + 1)), Comparator.comparingLong(centerY), false);
+            int groups = (slice.size() + maxEntries - 1) / maxEntries;
+            List<RTree<T>> nodes = new ArrayList<>(groups);
+            for (int j = 0; j < groups; j++) {
+                nodes.add(nodeFn.apply(new ArrayList<>(slice.subList(partitionStart(slice.size(), groups, j), partitionStart(slice.size(), groups, j + 1)))));
+            }
+            return nodes;
+        }).flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    private static int partitionStart(int size, int partitions, int index) {
+        return (int) ((long) size * index / partitions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> List<E> sort(List<E> items, Comparator<E> comparator, boolean parallel) {
+        E[] array = (E[]) items.toArray();
+        if (parallel) {
+            Arrays.parallelSort(array, comparator);
+        } else {
+            Arrays.sort(array, comparator);
+        }
+        return Arrays.asList(array);
+    }
+
+    private static <E> Rectangle boundsOf(List<E> items, Function<E, Rectangle> boundsFn) {
+        Rectangle result = new Rectangle(boundsFn.apply(items.get(0)));
+        for (E item : items) {
+            result.add(boundsFn.apply(item));
+        }
+        return result;
+    }
+
+    public static Rectangle findSmallestBoundingRect(Rectangle a, Rectangle b) {
+        int x1 = Math.min(a.x, b.x);
+        int y1 = Math.min(a.y, b.y);
+        int x2 = Math.max(a.x + a.width, b.x + b.width);
+        int y2 = Math.max(a.y + a.height, b.y + b.height);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * Smallest Euclidean distance between any point of a and any point of b (0 if they touch or overlap)
+     */
+    public static double minDistance(Rectangle a, Rectangle b) {
+        double dx = Math.max(0, Math.max((long) a.x - ((long) b.x + b.width), (long) b.x - ((long) a.x + a.width)));
+        double dy = Math.max(0, Math.max((long) a.y - ((long) b.y + b.height), (long) b.y - ((long) a.y + a.height)));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    static long area(Rectangle rect) {
+        return (long) rect.width * rect.height;
+    }
+
+    static long margin(Rectangle rect) {
+        return 2 * ((long) rect.width + rect.height);
+    }
+
+    static long enlargement(Rectangle a, Rectangle b) {
+        return boundingArea(a, b) - area(a);
+    }
+
+    /**
+     * Area of the smallest rectangle containing both, whose sides may be too long for a {@link Rectangle}
+     */
+    /**
+     * Far edge of an extent, clamped to Integer.MAX_VALUE for the trees that store edges as ints
+     */
+    static int farEdge(int start, int extent) {
+        return (int) Math.min((long) start + extent, Integer.MAX_VALUE);
+    }
+
+    static long boundingArea(Rectangle a, Rectangle b) {
+        long width = Math.max((long) a.x + a.width, (long) b.x + b.width) - Math.min(a.x, b.x);
+        long height = Math.max((long) a.y + a.height, (long) b.y + b.height) - Math.min(a.y, b.y);
+        return width * height;
+    }
+
+    static boolean covers(Rectangle outer, Rectangle inner) {
+        return outer.x <= inner.x && outer.y <= inner.y
+                && (long) outer.x + outer.width >= (long) inner.x + inner.width
+                && (long) outer.y + outer.height >= (long) inner.y + inner.height;
+    }
+
+    static long overlap(Rectangle a, Rectangle b) {
+        long width = Math.min((long) a.x + a.width, (long) b.x + b.width) - Math.max(a.x, b.x);
+        long height = Math.min((long) a.y + a.height, (long) b.y + b.height) - Math.max(a.y, b.y);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    /**
+     * Computed in longs, since the area of a large rectangle doesn't fit in an int
+     */
+    public static long requiredAreaEnlargementToIncludeRect(Rectangle a, Rectangle b) {
+        return enlargement(a, b);
     }
 
     @Override
@@ -343,11 +1275,74 @@ public class RTree<T> {
     }
 
     public int size() {
-        int size = 0;
-        for (RTree<T> child : children) {
-            size += child.size();
+        return count;
+    }
+
+    /**
+     * Walks the whole tree to measure how well it is organized
+     */
+    public RTreeStats stats() {
+        long nodes = 0;
+        long slots = 0;
+        long overlap = 0;
+        long deadSpace = 0;
+        Deque<RTree<T>> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            RTree<T> node = pending.pop();
+            nodes++;
+            slots += node.nodeSize();
+            for (int i = 0; i < node.children.size(); i++) {
+                for (int j = i + 1; j < node.children.size(); j++) {
+                    overlap += overlap(node.children.get(i).bounds, node.children.get(j).bounds);
+                }
+                pending.push(node.children.get(i));
+            }
+            if (node.nodeSize() > 0) {
+                List<Rectangle> contents = node.children.isEmpty() ? boundsView(node.entries, e -> e.bounds) : boundsView(node.children, c -> c.bounds);
+                deadSpace += area(node.bounds) - unionArea(contents);
+            }
+        }
+        return new RTreeStats(count, level() + 1, nodes, (double) slots / (nodes * maxEntries), overlap, deadSpace);
+    }
+
+    // Area covered by at least one of the rectangles, found by sweeping over the slabs between their x coordinates
+    static long unionArea(List<Rectangle> rects) {
+        long[] xs = new long[2 * rects.size()];
+        for (int i = 0; i < rects.size(); i++) {
+            xs[2 * i] = rects.get(i).x;
+            xs[2 * i + 1] = (long) rects.get(i).x + rects.get(i).width;
+        }
+        Arrays.sort(xs);
+        long total = 0;
+        List<long[]> spans = new ArrayList<>();
+        for (int i = 0; i + 1 < xs.length; i++) {
+            if (xs[i] == xs[i + 1]) {
+                continue;
+            }
+            spans.clear();
+            for (Rectangle rect : rects) {
+                if (rect.width > 0 && rect.height > 0 && rect.x <= xs[i] && (long) rect.x + rect.width >= xs[i + 1]) {
+                    spans.add(new long[] {rect.y, (long) rect.y + rect.height});
+                }
+            }
+            spans.sort(Comparator.comparingLong(span -> span[0]));
+            long covered = 0;
+            long start = Long.MIN_VALUE;
+            long end = Long.MIN_VALUE;
+            for (long[] span : spans) {
+                if (span[0] > end) {
+                    covered += end - start;
+                    start = span[0];
+                    end = span[1];
+                } else {
+                    end = Math.max(end, span[1]);
+                }
+            }
+            covered += end - start;
+            total += covered * (xs[i + 1] - xs[i]);
         }
-        return size + entries.size();
+        return total;
     }
 
 }
@@ -0,0 +1,27 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+
+public class RTreeEntry<T> {
+
+    Rectangle bounds;
+    T value;
+
+    public RTreeEntry(Rectangle bounds, T value) {
+        this.bounds = bounds;
+        this.value = value;
+    }
+
+    public Rectangle getBounds() {
+        return bounds;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "[ (" + bounds.x + ", " + bounds.y + ") to (" + (bounds.x + bounds.width) + ", " + (bounds.y + bounds.height) + ")" + "; value: " + value + " ]";
+    }
+}
@@ -0,0 +1,33 @@
+package com.zackmurry.rtree;
+
+/**
+ * Receives events from an {@link RTree} it has been set on with {@link RTree#setListener}. Trees without a
+ * listener don't measure anything. Only override the events you need.
+ */
+public interface RTreeListener {
+
+    /**
+     * Called after each search or visit
+     * @param nodesVisited nodes whose children or entries were examined
+     * @param entriesTested leaf entries whose bounds were compared with the search area
+     * @param results entries passed to the consumer or visitor
+     */
+    default void searched(int nodesVisited, int entriesTested, int results) {}
+
+    /**
+     * Called after each insert with the time it took, including any splits and reinsertions
+     */
+    default void inserted(long nanos) {}
+
+    /**
+     * Called before a node is split
+     * @param level level of the node, leaves being level 0
+     */
+    default void split(int level) {}
+
+    /**
+     * Called when R* forced reinsertion removes entries from an overflowing node instead of splitting it
+     */
+    default void reinserted(int level, int count) {}
+
+}
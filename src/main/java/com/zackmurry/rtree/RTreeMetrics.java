@@ -0,0 +1,192 @@
+package com.zackmurry.rtree;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener that keeps running totals of a tree's activity, and an MBean that publishes them along with the tree's
+ * structural statistics. Insert latencies are kept in a histogram with one bucket per power of two nanoseconds.
+ * <p>
+ * The counters can be read from any thread. The structural attributes walk the tree, so like the tree itself,
+ * they shouldn't be read while another thread is modifying it.
+ */
+public class RTreeMetrics implements RTreeListener, RTreeMetricsMBean {
+
+    private final RTree<?> tree;
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder entriesTested = new LongAdder();
+    private final LongAdder results = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder reinserts = new LongAdder();
+    // Bucket i counts inserts that took less than 2^i nanoseconds (and at least 2^(i-1))
+    private final AtomicLongArray insertLatency = new AtomicLongArray(Long.SIZE);
+
+    /**
+     * Starts collecting metrics for the tree, replacing any listener it already had
+     */
+    public RTreeMetrics(RTree<?> tree) {
+        this.tree = tree;
+        tree.setListener(this);
+    }
+
+    /**
+     * Registers this with the platform MBean server as com.zackmurry.rtree:type=RTree,name="[name]"
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.zackmurry.rtree:type=RTree,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public void searched(int nodesVisited, int entriesTested, int results) {
+        searches.increment();
+        this.nodesVisited.add(nodesVisited);
+        this.entriesTested.add(entriesTested);
+        this.results.add(results);
+    }
+
+    @Override
+    public void inserted(long nanos) {
+        inserts.increment();
+        insertLatency.incrementAndGet(Math.min(Long.SIZE - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos)));
+    }
+
+    @Override
+    public void split(int level) {
+        splits.increment();
+    }
+
+    @Override
+    public void reinserted(int level, int count) {
+        reinserts.increment();
+    }
+
+    @Override
+    public int getSize() {
+        return tree.size();
+    }
+
+    @Override
+    public int getHeight() {
+        return tree.level() + 1;
+    }
+
+    @Override
+    public long getNodeCount() {
+        return tree.stats().getNodeCount();
+    }
+
+    @Override
+    public double getAverageFill() {
+        return tree.stats().getAverageFill();
+    }
+
+    @Override
+    public long getOverlapArea() {
+        return tree.stats().getOverlapArea();
+    }
+
+    @Override
+    public long getDeadSpace() {
+        return tree.stats().getDeadSpace();
+    }
+
+    @Override
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    @Override
+    public double getAverageNodesVisited() {
+        return average(nodesVisited.sum(), searches.sum());
+    }
+
+    @Override
+    public double getAverageEntriesTested() {
+        return average(entriesTested.sum(), searches.sum());
+    }
+
+    @Override
+    public double getAverageResults() {
+        return average(results.sum(), searches.sum());
+    }
+
+    @Override
+    public long getInsertCount() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getSplitCount() {
+        return splits.sum();
+    }
+
+    @Override
+    public long getReinsertCount() {
+        return reinserts.sum();
+    }
+
+    @Override
+    public long getInsertLatencyMedianNanos() {
+        return insertLatencyPercentile(0.5);
+    }
+
+    @Override
+    public long getInsertLatency99thPercentileNanos() {
+        return insertLatencyPercentile(0.99);
+    }
+
+    @Override
+    public long[] getInsertLatencyHistogram() {
+        long[] histogram = new long[insertLatency.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = insertLatency.get(i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Upper bound of the histogram bucket that the given fraction of inserts fall into, or 0 if nothing was inserted
+     */
+    public long insertLatencyPercentile(double fraction) {
+        long[] histogram = getInsertLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen > 0 && seen >= fraction * total) {
+                return i == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void reset() {
+        searches.reset();
+        nodesVisited.reset();
+        entriesTested.reset();
+        results.reset();
+        inserts.reset();
+        splits.reset();
+        reinserts.reset();
+        for (int i = 0; i < insertLatency.length(); i++) {
+            insertLatency.set(i, 0);
+        }
+    }
+
+    private static double average(long total, long count) {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.zackmurry.rtree;
+
+/**
+ * JMX view of {@link RTreeMetrics}
+ */
+public interface RTreeMetricsMBean {
+
+    int getSize();
+
+    int getHeight();
+
+    long getNodeCount();
+
+    double getAverageFill();
+
+    long getOverlapArea();
+
+    long getDeadSpace();
+
+    long getSearchCount();
+
+    double getAverageNodesVisited();
+
+    double getAverageEntriesTested();
+
+    double getAverageResults();
+
+    long getInsertCount();
+
+    long getSplitCount();
+
+    long getReinsertCount();
+
+    long getInsertLatencyMedianNanos();
+
+    long getInsertLatency99thPercentileNanos();
+
+    long[] getInsertLatencyHistogram();
+
+    void reset();
+
+}
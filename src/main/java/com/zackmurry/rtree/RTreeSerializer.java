@@ -0,0 +1,213 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+/**
+ * Compact binary snapshots of an {@link RTree}. Nodes are written depth-first, and every rectangle is stored as
+ * varints relative to the corner of its parent's bounds, so most coordinates take one or two bytes:
+ * <pre>
+ * magic (4 bytes), version (1 byte), min entries, max entries, root bounds, root node
+ * node: child count, entry count, then each child's bounds followed by the child node,
+ *       then each entry's bounds followed by its value as written by the codec
+ * </pre>
+ * Data is streamed through a fixed-size buffer, and reading builds the nodes directly instead of replaying inserts.
+ */
+public final class RTreeSerializer {
+
+    private static final int MAGIC = 0x52545353; // "RTSS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_VARINT_SIZE = 5;
+    private static final int MAX_BOUNDS_SIZE = 4 * MAX_VARINT_SIZE;
+
+    private RTreeSerializer() {}
+
+    public static <T> void write(RTree<T> tree, ValueCodec<T> codec, WritableByteChannel channel) throws IOException {
+        Output<T> out = new Output<>(channel, codec);
+        out.buffer.putInt(MAGIC);
+        out.buffer.put((byte) VERSION);
+        out.putVarint(tree.minEntries);
+        out.putVarint(tree.maxEntries);
+        out.putBounds(tree.bounds, new Rectangle());
+        writeNode(tree, out);
+        out.drain();
+    }
+
+    /**
+     * Reads a tree that will use quadratic splits for later inserts
+     */
+    public static <T> RTree<T> read(ReadableByteChannel channel, ValueCodec<T> codec) throws IOException {
+        return read(channel, codec, new QuadraticStrategy());
+    }
+
+    public static <T> RTree<T> read(ReadableByteChannel channel, ValueCodec<T> codec, InsertionStrategy strategy) throws IOException {
+        Input<T> in = new Input<>(channel, codec);
+        try {
+            in.ensure(Integer.BYTES + 1 + 2 * MAX_VARINT_SIZE + MAX_BOUNDS_SIZE);
+            if (in.buffer.getInt() != MAGIC) {
+                throw new IOException("Not an R-Tree snapshot");
+            }
+            int version = in.buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported R-Tree snapshot version " + version);
+            }
+            int minEntries = in.getVarint();
+            int maxEntries = in.getVarint();
+            RTree<T> root;
+            try {
+                root = new RTree<>(minEntries, maxEntries, strategy);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt R-Tree snapshot", e);
+            }
+            root.bounds = in.getBounds(new Rectangle());
+            readNode(root, in);
+            return root;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException("R-Tree snapshot ended unexpectedly");
+        }
+    }
+
+    private static <T> void writeNode(RTree<T> node, Output<T> out) throws IOException {
+        out.ensure(2 * MAX_VARINT_SIZE);
+        out.putVarint(node.children.size());
+        out.putVarint(node.entries.size());
+        for (RTree<T> child : node.children) {
+            out.ensure(MAX_BOUNDS_SIZE);
+            out.putBounds(child.bounds, node.bounds);
+            writeNode(child, out);
+        }
+        for (RTreeEntry<T> entry : node.entries) {
+            out.ensure(MAX_BOUNDS_SIZE + out.codec.maxSize());
+            out.putBounds(entry.bounds, node.bounds);
+            out.codec.write(entry.value, out.buffer);
+        }
+    }
+
+    private static <T> void readNode(RTree<T> node, Input<T> in) throws IOException {
+        in.ensure(2 * MAX_VARINT_SIZE);
+        int childCount = in.getVarint();
+        int entryCount = in.getVarint();
+        if (childCount < 0 || entryCount < 0) {
+            throw new IOException("Corrupt R-Tree snapshot");
+        }
+        node.children = new ArrayList<>(Math.min(childCount, node.maxEntries + 1));
+        node.entries = new ArrayList<>(Math.min(entryCount, node.maxEntries + 1));
+        for (int i = 0; i < childCount; i++) {
+            in.ensure(MAX_BOUNDS_SIZE);
+            RTree<T> child = new RTree<>(node.minEntries, node.maxEntries, node.strategy);
+            child.bounds = in.getBounds(node.bounds);
+            child.parent = node;
+            readNode(child, in);
+            node.children.add(child);
+        }
+        for (int i = 0; i < entryCount; i++) {
+            in.ensure(MAX_BOUNDS_SIZE + in.codec.maxSize());
+            Rectangle bounds = in.getBounds(node.bounds);
+            node.entries.add(new RTreeEntry<>(bounds, in.codec.read(in.buffer)));
+        }
+        node.recount();
+    }
+
+    private static final class Output<T> {
+        final WritableByteChannel channel;
+        final ValueCodec<T> codec;
+        final ByteBuffer buffer;
+
+        Output(WritableByteChannel channel, ValueCodec<T> codec) {
+            this.channel = channel;
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, MAX_BOUNDS_SIZE + codec.maxSize()));
+        }
+
+        // Makes room for at least the given number of bytes
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        // Zigzag encoding, so that small negative numbers stay small
+        void putSignedVarint(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        void putBounds(Rectangle rect, Rectangle parent) {
+            putSignedVarint(rect.x - parent.x);
+            putSignedVarint(rect.y - parent.y);
+            putVarint(rect.width);
+            putVarint(rect.height);
+        }
+    }
+
+    private static final class Input<T> {
+        final ReadableByteChannel channel;
+        final ValueCodec<T> codec;
+        final ByteBuffer buffer;
+
+        Input(ReadableByteChannel channel, ValueCodec<T> codec) {
+            this.channel = channel;
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, MAX_BOUNDS_SIZE + codec.maxSize()));
+            this.buffer.limit(0);
+        }
+
+        // Buffers up to the given number of bytes, or fewer if the channel ends first
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes && channel.read(buffer) >= 0) {
+                // Keep reading until enough bytes are buffered or the channel ends
+            }
+            buffer.flip();
+        }
+
+        int getVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buffer.get();
+                result |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Corrupt R-Tree snapshot");
+        }
+
+        int getSignedVarint() throws IOException {
+            int value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        Rectangle getBounds(Rectangle parent) throws IOException {
+            int x = parent.x + getSignedVarint();
+            int y = parent.y + getSignedVarint();
+            return new Rectangle(x, y, getVarint(), getVarint());
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.zackmurry.rtree;
+
+/**
+ * Structural statistics of an {@link RTree}, as measured by {@link RTree#stats()}. Queries are fastest in trees
+ * that are shallow, have full nodes and little overlap and dead space.
+ */
+public final class RTreeStats {
+
+    private final int size;
+    private final int height;
+    private final long nodeCount;
+    private final double averageFill;
+    private final long overlapArea;
+    private final long deadSpace;
+
+    RTreeStats(int size, int height, long nodeCount, double averageFill, long overlapArea, long deadSpace) {
+        this.size = size;
+        this.height = height;
+        this.nodeCount = nodeCount;
+        this.averageFill = averageFill;
+        this.overlapArea = overlapArea;
+        this.deadSpace = deadSpace;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Number of levels, counting a leaf root as 1
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Fraction of the available child and entry slots that are in use, between 0 and 1
+     */
+    public double getAverageFill() {
+        return averageFill;
+    }
+
+    /**
+     * Total area shared by each pair of sibling nodes. Searches in overlapping areas have to descend into several siblings.
+     */
+    public long getOverlapArea() {
+        return overlapArea;
+    }
+
+    /**
+     * Total area inside nodes' bounds that none of their children or entries cover. Searches there visit nodes for nothing.
+     */
+    public long getDeadSpace() {
+        return deadSpace;
+    }
+
+    @Override
+    public String toString() {
+        return "RTreeStats{size=" + size + ", height=" + height + ", nodeCount=" + nodeCount + ", averageFill=" + averageFill +
+                ", overlapArea=" + overlapArea + ", deadSpace=" + deadSpace + "}";
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.zackmurry.rtree;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Draws a tree offscreen, without needing a display, into images far larger than a screen. The image is split into
+ * square tiles that are drawn in parallel, each visiting only the nodes whose bounds overlap it, and is written
+ * as a PNG one strip of tiles at a time, so at most two strips are in memory at once. Nodes look the way
+ * {@link Display} draws them, except that outlines are a pixel wide and a node that fits in a single pixel is
+ * drawn as just that pixel. The tree mustn't be changed while it is being drawn.
+ */
+public class TreeRenderer {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final RTree<?> tree;
+    private final int width;
+    private final int height;
+    private final Rectangle area;
+    private final int tileSize;
+    private final double scaleX;
+    private final double scaleY;
+
+    /**
+     * Draws the whole tree
+     */
+    public TreeRenderer(RTree<?> tree, int width, int height) {
+        this(tree, width, height, tree.bounds, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param area the part of the tree's space that is stretched over the image
+     */
+    public TreeRenderer(RTree<?> tree, int width, int height, Rectangle area, int tileSize) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height + " in tiles of " + tileSize);
+        }
+        this.tree = tree;
+        this.width = width;
+        this.height = height;
+        this.area = new Rectangle(area);
+        this.tileSize = tileSize;
+        this.scaleX = (double) width / Math.max(1, area.width);
+        this.scaleY = (double) height / Math.max(1, area.height);
+    }
+
+    public void writePng(OutputStream out) throws IOException {
+        writePng(out, ForkJoinPool.commonPool());
+    }
+
+    public void writePng(OutputStream out, ForkJoinPool pool) throws IOException {
+        PngWriter png = new PngWriter(out, width, height);
+        final int[] row = new int[width];
+        List<ForkJoinTask<BufferedImage>> strip = renderStrip(0, pool);
+        for (int y = 0; y < height; y += tileSize) {
+            // Start drawing the next strip while this one is compressed
+            List<ForkJoinTask<BufferedImage>> next = y + tileSize < height ? renderStrip(y + tileSize, pool) : null;
+            List<int[]> tiles = new ArrayList<>(strip.size());
+            for (ForkJoinTask<BufferedImage> task : strip) {
+                tiles.add(((DataBufferInt) task.join().getRaster().getDataBuffer()).getData());
+            }
+            int stripHeight = Math.min(tileSize, height - y);
+            for (int line = 0; line < stripHeight; line++) {
+                for (int i = 0; i < tiles.size(); i++) {
+                    int tileWidth = Math.min(tileSize, width - i * tileSize);
+                    System.arraycopy(tiles.get(i), line * tileWidth, row, i * tileSize, tileWidth);
+                }
+                png.writeRow(row, 0);
+            }
+            strip = next;
+        }
+        png.finish();
+    }
+
+    private List<ForkJoinTask<BufferedImage>> renderStrip(int y, ForkJoinPool pool) {
+        List<ForkJoinTask<BufferedImage>> tiles = new ArrayList<>();
+        int tileHeight = Math.min(tileSize, height - y);
+        for (int x = 0; x < width; x += tileSize) {
+            int tileX = x;
+            int tileWidth = Math.min(tileSize, width - x);
+            tiles.add(pool.submit(() -> renderTile(tileX, y, tileWidth, tileHeight)));
+        }
+        return tiles;
+    }
+
+    /**
+     * Draws the part of the image with the given pixel bounds
+     */
+    public BufferedImage renderTile(int x, int y, int tileWidth, int tileHeight) {
+        BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = tile.createGraphics();
+        g.setColor(Display.BACKGROUND_COLOR);
+        g.fillRect(0, 0, tileWidth, tileHeight);
+        g.translate(-x, -y);
+        Rectangle bounds = new Rectangle(x, y, tileWidth, tileHeight);
+        if (overlaps(toPixels(tree.bounds), bounds)) {
+            drawNode(tree, g, bounds, 0);
+        }
+        g.dispose();
+        return tile;
+    }
+
+    private <T> void drawNode(RTree<T> node, Graphics2D g, Rectangle tile, int depth) {
+        Rectangle bounds = toPixels(node.bounds);
+        if (bounds.width == 0 && bounds.height == 0 && node.count > 0) {
+            // Level of detail: everything below the node lands on the same pixel
+            g.setColor(Display.ENTRY_COLOR);
+            g.fillRect(bounds.x, bounds.y, 1, 1);
+            return;
+        }
+        g.setColor(Display.depthColor(depth));
+        g.drawRect(bounds.x, bounds.y, bounds.width, bounds.height);
+        g.setColor(Display.ENTRY_COLOR);
+        for (RTreeEntry<T> entry : node.entries) {
+            Rectangle rect = toPixels(entry.bounds);
+            if (overlaps(rect, tile)) {
+                g.fillRect(rect.x, rect.y, Math.max(1, rect.width), Math.max(1, rect.height));
+            }
+        }
+        for (RTree<T> child : node.children) {
+            if (overlaps(toPixels(child.bounds), tile)) {
+                drawNode(child, g, tile, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Image pixels that the rectangle's corners fall in, clamped to just outside the image. The same rectangle always
+     * lands on the same pixels no matter which tile is being drawn, so there are no seams between tiles.
+     */
+    private Rectangle toPixels(Rectangle rect) {
+        int x1 = toPixel((rect.x - (double) area.x) * scaleX, width);
+        int y1 = toPixel((rect.y - (double) area.y) * scaleY, height);
+        int x2 = toPixel(((double) rect.x + rect.width - area.x) * scaleX, width);
+        int y2 = toPixel(((double) rect.y + rect.height - area.y) * scaleY, height);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    private static int toPixel(double position, int size) {
+        return (int) Math.max(-1, Math.min(size, Math.floor(position)));
+    }
+
+    // Whether the pixels from one corner to the other, both included, overlap the tile
+    private static boolean overlaps(Rectangle pixels, Rectangle tile) {
+        return pixels.x < tile.x + tile.width && pixels.x + pixels.width >= tile.x
+                && pixels.y < tile.y + tile.height && pixels.y + pixels.height >= tile.y;
+    }
+
+}
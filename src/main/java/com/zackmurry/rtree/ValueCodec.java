@@ -0,0 +1,87 @@
+package com.zackmurry.rtree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values to and from bytes for trees that are stored outside of the heap
+ * @param <T> Type of value to store
+ */
+public interface ValueCodec<T> {
+
+    ValueCodec<Integer> INTEGER = new ValueCodec<>() {
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+
+        @Override
+        public int maxSize() {
+            return Integer.BYTES;
+        }
+    };
+
+    ValueCodec<Long> LONG = new ValueCodec<>() {
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+
+        @Override
+        public int maxSize() {
+            return Long.BYTES;
+        }
+    };
+
+    /**
+     * UTF-8 strings of at most maxBytes encoded bytes, prefixed by their length
+     */
+    static ValueCodec<String> string(int maxBytes) {
+        if (maxBytes < 0 || maxBytes > 0xFFFF) {
+            throw new IllegalArgumentException("maxBytes must be between 0 and 65535");
+        }
+        return new ValueCodec<>() {
+            @Override
+            public void write(String value, ByteBuffer buffer) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("String is " + bytes.length + " bytes, the limit is " + maxBytes);
+                }
+                buffer.putShort((short) bytes.length);
+                buffer.put(bytes);
+            }
+
+            @Override
+            public String read(ByteBuffer buffer) {
+                byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public int maxSize() {
+                return Short.BYTES + maxBytes;
+            }
+        };
+    }
+
+    void write(T value, ByteBuffer buffer);
+
+    T read(ByteBuffer buffer);
+
+    /**
+     * Upper bound on the number of bytes write() produces for any value
+     */
+    int maxSize();
+
+}
@@ -1,6 +1,761 @@
+import com.zackmurry.rtree.Aggregator;
+import com.zackmurry.rtree.ConcurrentRTree;
+import com.zackmurry.rtree.DoubleRTree;
+import com.zackmurry.rtree.HilbertRTree;
+import com.zackmurry.rtree.InsertionStrategy;
+import com.zackmurry.rtree.LinearStrategy;
+import com.zackmurry.rtree.LongRTree;
+import com.zackmurry.rtree.MovingWindow;
+import com.zackmurry.rtree.PackedRTree;
+import com.zackmurry.rtree.PagedRTree;
+import com.zackmurry.rtree.PersistentRTree;
+import com.zackmurry.rtree.PointRTree;
+import com.zackmurry.rtree.QuadraticStrategy;
+import com.zackmurry.rtree.RStarStrategy;
 import com.zackmurry.rtree.RTree;
+import com.zackmurry.rtree.RTreeEntry;
+import com.zackmurry.rtree.RTreeMetrics;
+import com.zackmurry.rtree.RTreeSerializer;
+import com.zackmurry.rtree.RTreeStats;
+import com.zackmurry.rtree.TreeRenderer;
+import com.zackmurry.rtree.ValueCodec;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class RTreeTest {
 
+    private static List<RTreeEntry<Integer>> randomEntries(int count, long seed) {
+        Random random = new Random(seed);
+        List<RTreeEntry<Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new RTreeEntry<>(new Rectangle(random.nextInt(10_000), random.nextInt(10_000), 1 + random.nextInt(50), 1 + random.nextInt(50)), i));
+        }
+        return entries;
+    }
+
+    private static Set<Integer> bruteForceSearch(List<RTreeEntry<Integer>> entries, Rectangle area) {
+        Set<Integer> results = new HashSet<>();
+        for (RTreeEntry<Integer> entry : entries) {
+            if (area.intersects(entry.getBounds())) {
+                results.add(entry.getValue());
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void bulkLoadMatchesBruteForceSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(5000, 1);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+        RTree<Integer> parallelTree = RTree.bulkLoadParallel(entries);
+        assertEquals(entries.size(), tree.size());
+        assertEquals(entries.size(), parallelTree.size());
+        Random random = new Random(2);
+        for (int i = 0; i < 100; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(1000), random.nextInt(1000));
+            assertEquals(bruteForceSearch(entries, area), new HashSet<>(tree.search(area)));
+            assertEquals(bruteForceSearch(entries, area), new HashSet<>(parallelTree.search(area)));
+        }
+    }
+
+    @Test
+    public void insertAfterBulkLoad() {
+        List<RTreeEntry<Integer>> entries = randomEntries(1000, 3);
+        RTree<Integer> tree = RTree.bulkLoad(entries.subList(0, 500));
+        for (RTreeEntry<Integer> entry : entries.subList(500, 1000)) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        assertEquals(entries.size(), tree.size());
+        Rectangle everything = new Rectangle(0, 0, 20_000, 20_000);
+        assertEquals(bruteForceSearch(entries, everything), new HashSet<>(tree.search(everything)));
+    }
+
+    @Test
+    public void packedTreeMatchesBruteForceSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(5000, 4);
+        PackedRTree<Integer> tree = new PackedRTree<>(4, 16);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        assertEquals(entries.size(), tree.size());
+        Random random = new Random(5);
+        for (int i = 0; i < 100; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(1000), random.nextInt(1000));
+            List<Integer> results = tree.search(area);
+            assertEquals(bruteForceSearch(entries, area), new HashSet<>(results));
+            assertEquals(results.size(), new HashSet<>(results).size());
+        }
+
+        // Far edges past Integer.MAX_VALUE used to wrap around and hide entries near it
+        tree.insert(new Rectangle(Integer.MAX_VALUE - 5, 0, 2, 2), -1);
+        tree.insert(new Rectangle(Integer.MAX_VALUE - 3, 0, 100, 2), -2);
+        assertEquals(Set.of(-1, -2), new HashSet<>(tree.search(new Rectangle(Integer.MAX_VALUE - 10, 0, 100, 100))));
+    }
+
+    @Test
+    public void streamingSearchVariantsAgree() {
+        List<RTreeEntry<Integer>> entries = randomEntries(2000, 6);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+        Rectangle area = new Rectangle(2000, 2000, 4000, 4000);
+        List<Integer> expected = tree.search(area);
+        assertEquals(bruteForceSearch(entries, area), new HashSet<>(expected));
+
+        List<Integer> consumed = new ArrayList<>();
+        tree.search(area, consumed::add);
+        assertEquals(expected, consumed);
+
+        List<Integer> iterated = new ArrayList<>();
+        tree.searchIterator(area).forEachRemaining(iterated::add);
+        assertEquals(expected, iterated);
+
+        assertEquals(expected.subList(0, 10), tree.searchStream(area).limit(10).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void visitorStopsEarly() {
+        RTree<Integer> tree = RTree.bulkLoad(randomEntries(2000, 7));
+        Rectangle everything = new Rectangle(0, 0, 20_000, 20_000);
+        List<Integer> visited = new ArrayList<>();
+        assertFalse(tree.visit(everything, (bounds, value) -> {
+            visited.add(value);
+            return visited.size() < 5;
+        }));
+        assertEquals(5, visited.size());
+        assertTrue(tree.visit(everything, (bounds, value) -> true));
+
+        Iterator<Integer> empty = tree.searchIterator(new Rectangle(-100, -100, 10, 10));
+        assertFalse(empty.hasNext());
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        List<RTreeEntry<Integer>> entries = randomEntries(3000, 8);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+        Point p = new Point(5000, 5000);
+        Rectangle query = new Rectangle(p.x, p.y, 0, 0);
+        List<Double> expectedDistances = entries.stream()
+                .map(e -> RTree.minDistance(query, e.getBounds()))
+                .sorted()
+                .limit(20)
+                .collect(Collectors.toList());
+        List<Double> actualDistances = tree.nearest(p, 20).stream()
+                .map(v -> RTree.minDistance(query, entries.get(v).getBounds()))
+                .collect(Collectors.toList());
+        assertEquals(expectedDistances, actualDistances);
+
+        List<Integer> withinRange = tree.nearest(query, Integer.MAX_VALUE, 300);
+        assertEquals(entries.stream().filter(e -> RTree.minDistance(query, e.getBounds()) <= 300).count(), withinRange.size());
+
+        Iterator<Integer> iterator = tree.nearestIterator(p);
+        int count = 0;
+        double last = 0;
+        while (iterator.hasNext()) {
+            double distance = RTree.minDistance(query, entries.get(iterator.next()).getBounds());
+            assertTrue(distance >= last);
+            last = distance;
+            count++;
+        }
+        assertEquals(entries.size(), count);
+    }
+
+    @Test
+    public void everyStrategyMatchesBruteForceSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(3000, 9);
+        for (InsertionStrategy strategy : List.of(new LinearStrategy(), new QuadraticStrategy(), new RStarStrategy())) {
+            for (int[] capacity : new int[][] { { 2, 4 }, { 4, 16 } }) {
+                RTree<Integer> tree = new RTree<>(capacity[0], capacity[1], strategy);
+                for (RTreeEntry<Integer> entry : entries) {
+                    tree.insert(entry.getBounds(), entry.getValue());
+                }
+                assertEquals(entries.size(), tree.size());
+                Random random = new Random(10);
+                for (int i = 0; i < 50; i++) {
+                    Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+                    assertEquals(bruteForceSearch(entries, area), new HashSet<>(tree.search(area)), strategy.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deleteAndUpdate() {
+        List<RTreeEntry<Integer>> entries = randomEntries(2000, 11);
+        RTree<Integer> tree = new RTree<>(2, 6, new RStarStrategy());
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        assertFalse(tree.delete(new Rectangle(-10, -10, 5, 5), 0));
+
+        List<RTreeEntry<Integer>> remaining = new ArrayList<>();
+        Random random = new Random(12);
+        for (RTreeEntry<Integer> entry : entries) {
+            if (entry.getValue() % 2 == 0) {
+                assertTrue(tree.delete(entry.getBounds(), entry.getValue()));
+            } else {
+                // Alternate between small moves that stay inside the leaf and jumps across the whole space
+                Rectangle old = entry.getBounds();
+                Rectangle moved = entry.getValue() % 3 == 0
+                        ? new Rectangle(old.x + random.nextInt(5), old.y + random.nextInt(5), old.width, old.height)
+                        : new Rectangle(random.nextInt(10_000), random.nextInt(10_000), old.width, old.height);
+                assertTrue(tree.update(old, moved, entry.getValue()));
+                remaining.add(new RTreeEntry<>(moved, entry.getValue()));
+            }
+        }
+        assertEquals(remaining.size(), tree.size());
+        for (int i = 0; i < 50; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+            assertEquals(bruteForceSearch(remaining, area), new HashSet<>(tree.search(area)));
+        }
+
+        for (RTreeEntry<Integer> entry : remaining) {
+            assertTrue(tree.delete(entry.getBounds(), entry.getValue()));
+        }
+        assertEquals(0, tree.size());
+        assertTrue(tree.search(new Rectangle(0, 0, 20_000, 20_000)).isEmpty());
+    }
+
+    @Test
+    public void persistentTreeSnapshotsAreIsolated() throws InterruptedException {
+        List<RTreeEntry<Integer>> entries = randomEntries(3000, 13);
+        PersistentRTree<Integer> tree = new PersistentRTree<>(2, 8, new QuadraticStrategy());
+        Rectangle everything = new Rectangle(0, 0, 20_000, 20_000);
+
+        // Readers must always see a consistent tree while another thread writes
+        AtomicInteger inconsistentReads = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                PersistentRTree.Snapshot<Integer> snapshot = tree.snapshot();
+                if (snapshot.size() != snapshot.search(snapshot.getBounds()).size()) {
+                    inconsistentReads.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        reader.join();
+        assertEquals(0, inconsistentReads.get());
+
+        PersistentRTree.Snapshot<Integer> before = tree.snapshot();
+        for (RTreeEntry<Integer> entry : entries.subList(0, 1500)) {
+            assertTrue(tree.delete(entry.getBounds(), entry.getValue()));
+        }
+        assertFalse(tree.delete(new Rectangle(-10, -10, 1, 1), 0));
+        assertEquals(entries.size(), before.size());
+        assertEquals(bruteForceSearch(entries, everything), new HashSet<>(before.search(everything)));
+
+        List<RTreeEntry<Integer>> remaining = entries.subList(1500, entries.size());
+        assertEquals(remaining.size(), tree.size());
+        Random random = new Random(14);
+        for (int i = 0; i < 50; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+            assertEquals(bruteForceSearch(remaining, area), new HashSet<>(tree.search(area)));
+        }
+    }
+
+    @Test
+    public void concurrentTreeStressTest() throws Exception {
+        final int threads = 8;
+        final int perThread = 2000;
+        List<RTreeEntry<Integer>> entries = randomEntries(threads * perThread, 15);
+        ConcurrentRTree<Integer> tree = new ConcurrentRTree<>(2, 6, new RStarStrategy());
+        Rectangle everything = new Rectangle(0, 0, 20_000, 20_000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            // Searches running alongside the writers must never lose entries that were already inserted
+            AtomicInteger lostEntries = new AtomicInteger();
+            Future<?> reader = executor.submit(() -> {
+                for (int i = 0; i < 100; i++) {
+                    int before = tree.size();
+                    if (tree.search(everything).size() < before) {
+                        lostEntries.incrementAndGet();
+                    }
+                }
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                List<RTreeEntry<Integer>> slice = entries.subList(t * perThread, (t + 1) * perThread);
+                writers.add(executor.submit(() -> {
+                    for (RTreeEntry<Integer> entry : slice) {
+                        tree.insert(entry.getBounds(), entry.getValue());
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            reader.get();
+            assertEquals(0, lostEntries.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(entries.size(), tree.size());
+        List<Integer> all = tree.search(everything);
+        assertEquals(entries.size(), all.size());
+        Random random = new Random(16);
+        for (int i = 0; i < 50; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+            assertEquals(bruteForceSearch(entries, area), new HashSet<>(tree.search(area)));
+        }
+    }
+
+    @Test
+    public void parallelSearchMatchesSequentialSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(20_000, 17);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+        Rectangle area = new Rectangle(1000, 1000, 8000, 8000);
+        List<Integer> expected = tree.search(area);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, tree.parallelSearch(area, pool));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(expected, tree.parallelSearch(area));
+        assertEquals(expected, tree.parallelSearchStream(area).collect(Collectors.toList()));
+        assertEquals(expected.size(), tree.parallelSearchStream(area).count());
+        assertTrue(tree.parallelSearch(new Rectangle(-100, -100, 10, 10)).isEmpty());
+    }
+
+    @Test
+    public void pagedTreeWorksThroughSmallCache(@TempDir Path directory) throws IOException {
+        List<RTreeEntry<Integer>> entries = randomEntries(10_000, 18);
+        Path file = directory.resolve("tree.rtree");
+        try (PagedRTree<Integer> tree = PagedRTree.create(file, ValueCodec.INTEGER, 512, 8)) {
+            for (RTreeEntry<Integer> entry : entries.subList(0, 5000)) {
+                tree.insert(entry.getBounds(), entry.getValue());
+            }
+            assertTrue(tree.cachedPages() <= 8);
+        }
+
+        RTree<Integer> reference = RTree.bulkLoad(entries);
+        try (PagedRTree<Integer> tree = PagedRTree.open(file, ValueCodec.INTEGER, 8)) {
+            assertEquals(5000, tree.size());
+            assertEquals(0, tree.cachedPages());
+            for (RTreeEntry<Integer> entry : entries.subList(5000, entries.size())) {
+                tree.insert(entry.getBounds(), entry.getValue());
+            }
+            assertEquals(entries.size(), tree.size());
+            Random random = new Random(19);
+            for (int i = 0; i < 50; i++) {
+                Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+                assertEquals(bruteForceSearch(entries, area), new HashSet<>(tree.search(area)));
+                assertTrue(tree.cachedPages() <= 8);
+            }
+            Point p = new Point(5000, 5000);
+            Rectangle query = new Rectangle(p.x, p.y, 0, 0);
+            assertEquals(
+                    reference.nearest(p, 10).stream().map(v -> RTree.minDistance(query, entries.get(v).getBounds())).collect(Collectors.toList()),
+                    tree.nearest(p, 10).stream().map(v -> RTree.minDistance(query, entries.get(v).getBounds())).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void serializedTreeRoundTrips(@TempDir Path directory) throws IOException {
+        List<RTreeEntry<Integer>> entries = randomEntries(20_000, 20);
+        RTree<Integer> tree = RTree.bulkLoad(entries.subList(0, 15_000), 4, 16, new RStarStrategy());
+        for (RTreeEntry<Integer> entry : entries.subList(15_000, entries.size())) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        Path file = directory.resolve("tree.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            RTreeSerializer.write(tree, ValueCodec.INTEGER, channel);
+        }
+        RTree<Integer> loaded;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            loaded = RTreeSerializer.read(channel, ValueCodec.INTEGER, new RStarStrategy());
+        }
+        assertEquals(tree.toString(), loaded.toString());
+
+        // The loaded tree has to keep working as a normal tree
+        List<RTreeEntry<Integer>> more = randomEntries(1000, 21);
+        for (RTreeEntry<Integer> entry : more) {
+            loaded.insert(entry.getBounds(), entry.getValue() + entries.size());
+        }
+        assertTrue(loaded.delete(entries.get(0).getBounds(), 0));
+        assertEquals(entries.size() + more.size() - 1, loaded.size());
+    }
+
+    @Test
+    public void doubleTreeMatchesBruteForceSearch() {
+        // Longitude/latitude boxes far smaller than one int unit, plus some points
+        Random random = new Random(22);
+        List<Rectangle2D> bounds = new ArrayList<>();
+        DoubleRTree<Integer> tree = new DoubleRTree<>(3, 8);
+        for (int i = 0; i < 20_000; i++) {
+            double size = i % 4 == 0 ? 0 : random.nextDouble() * 1e-3;
+            Rectangle2D rect = new Rectangle2D.Double(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180, size, size);
+            bounds.add(rect);
+            tree.insert(rect, i);
+        }
+        assertEquals(bounds.size(), tree.size());
+        for (int i = 0; i < 200; i++) {
+            double size = random.nextDouble() * (i % 2 == 0 ? 1 : 0.01);
+            Rectangle2D area = new Rectangle2D.Double(-180 + random.nextDouble() * 360, -90 + random.nextDouble() * 180, size, size);
+            Set<Integer> expected = new HashSet<>();
+            for (int j = 0; j < bounds.size(); j++) {
+                Rectangle2D rect = bounds.get(j);
+                if (rect.getMinX() <= area.getMaxX() && area.getMinX() <= rect.getMaxX() && rect.getMinY() <= area.getMaxY() && area.getMinY() <= rect.getMaxY()) {
+                    expected.add(j);
+                }
+            }
+            assertEquals(expected, new HashSet<>(tree.search(area)));
+        }
+        // Searching for an entry's exact bounds always finds it, even at a single point
+        for (int i = 0; i < bounds.size(); i += 97) {
+            assertTrue(tree.search(bounds.get(i)).contains(i));
+        }
+
+        // Sorted points keep growing the boxes they land in, and an outlier far away stretches the root's grid
+        DoubleRTree<Integer> track = new DoubleRTree<>(3, 8);
+        for (int i = 0; i < 20_000; i++) {
+            track.insert(i * 1e-5, Math.sin(i * 1e-3), i * 1e-5, Math.sin(i * 1e-3), i);
+        }
+        track.insert(1e12, -1e12, 1e12, -1e12, -1);
+        for (int i = 0; i < 20_000; i += 7) {
+            assertEquals(Collections.singletonList(i), track.search(new Rectangle2D.Double(i * 1e-5, Math.sin(i * 1e-3), 0, 0)));
+        }
+        assertEquals(0, track.getBounds().getMinX());
+        assertEquals(-1e12, track.getBounds().getMinY());
+        assertEquals(1e12, track.getBounds().getMaxX());
+
+        // The int tree's area math used to overflow on large rectangles
+        assertTrue(RTree.requiredAreaEnlargementToIncludeRect(new Rectangle(0, 0, 100_000, 100_000), new Rectangle(0, 0, 200_000, 100_000)) > 0);
+    }
+
+    @Test
+    public void joinMatchesBruteForce() {
+        // Trees of different heights: many small entries against a few large ones
+        List<RTreeEntry<Integer>> assets = randomEntries(20_000, 23);
+        RTree<Integer> assetTree = RTree.bulkLoad(assets, 6, 16, new RStarStrategy());
+        Random random = new Random(24);
+        List<RTreeEntry<Integer>> zones = new ArrayList<>();
+        RTree<Integer> zoneTree = new RTree<>();
+        for (int i = 0; i < 300; i++) {
+            Rectangle rect = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), 1 + random.nextInt(500), 1 + random.nextInt(500));
+            zones.add(new RTreeEntry<>(rect, i));
+            zoneTree.insert(rect, i);
+        }
+
+        Set<Long> expected = new HashSet<>();
+        for (RTreeEntry<Integer> asset : assets) {
+            for (RTreeEntry<Integer> zone : zones) {
+                if (asset.getBounds().intersects(zone.getBounds())) {
+                    expected.add((long) asset.getValue() << 32 | zone.getValue());
+                }
+            }
+        }
+        assertFalse(expected.isEmpty());
+
+        List<Long> pairs = new ArrayList<>();
+        RTree.join(assetTree, zoneTree, (asset, zone) -> pairs.add((long) asset << 32 | zone));
+        assertEquals(expected.size(), pairs.size());
+        assertEquals(expected, new HashSet<>(pairs));
+
+        Set<Long> parallelPairs = ConcurrentHashMap.newKeySet();
+        RTree.parallelJoin(assetTree, zoneTree, (asset, zone) -> parallelPairs.add((long) asset << 32 | zone), new ForkJoinPool(4));
+        assertEquals(expected, parallelPairs);
+
+        List<Long> reversed = new ArrayList<>();
+        RTree.join(zoneTree, assetTree, (zone, asset) -> reversed.add((long) asset << 32 | zone));
+        assertEquals(expected, new HashSet<>(reversed));
+    }
+
+    @Test
+    public void metricsAreReported() throws JMException {
+        List<RTreeEntry<Integer>> entries = randomEntries(5000, 25);
+        RTree<Integer> tree = new RTree<>(2, 8, new RStarStrategy());
+        RTreeMetrics metrics = new RTreeMetrics(tree);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        assertEquals(entries.size(), metrics.getInsertCount());
+        assertEquals(entries.size(), LongStream.of(metrics.getInsertLatencyHistogram()).sum());
+        assertTrue(metrics.getSplitCount() > 0);
+        assertTrue(metrics.getReinsertCount() > 0);
+        assertTrue(metrics.getInsertLatencyMedianNanos() <= metrics.getInsertLatency99thPercentileNanos());
+
+        int results = tree.search(new Rectangle(0, 0, 10_000, 10_000)).size();
+        assertEquals(entries.size(), results);
+        assertEquals(1, metrics.getSearchCount());
+        assertEquals(entries.size(), metrics.getAverageEntriesTested());
+        assertEquals(results, metrics.getAverageResults());
+
+        RTreeStats stats = tree.stats();
+        assertEquals(entries.size(), stats.getSize());
+        assertEquals(stats.getNodeCount(), metrics.getNodeCount());
+        assertEquals(stats.getNodeCount(), metrics.getAverageNodesVisited());
+        assertTrue(stats.getAverageFill() > 0.4 && stats.getAverageFill() <= 1);
+        assertTrue(stats.getOverlapArea() >= 0 && stats.getDeadSpace() >= 0);
+
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(entries.size(), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Size"));
+            assertEquals(stats.getHeight(), ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Height"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void countAndAggregateMatchSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(20_000, 26);
+        RTree<Integer> tree = RTree.bulkLoad(entries.subList(0, 10_000), 4, 16, new RStarStrategy());
+        Aggregator<Integer, Double> sum = Aggregator.sum(v -> v);
+        Aggregator<Integer, Double> max = Aggregator.max(v -> v);
+        tree.addAggregator(sum);
+        tree.addAggregator(max);
+        for (RTreeEntry<Integer> entry : entries.subList(10_000, entries.size())) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        // Points are stored but never found by searches, so they mustn't be counted either
+        tree.insert(new Rectangle(5000, 5000, 0, 0), -1);
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(tree.delete(entries.get(i).getBounds(), entries.get(i).getValue()));
+        }
+
+        Random random = new Random(27);
+        for (int i = 0; i < 200; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(5000), random.nextInt(5000));
+            List<Integer> results = tree.search(area);
+            assertEquals(results.size(), tree.count(area));
+            assertEquals(results.stream().mapToDouble(v -> v).sum(), tree.aggregate(area, sum));
+            assertEquals(results.stream().mapToDouble(v -> v).max().orElse(Double.NEGATIVE_INFINITY), tree.aggregate(area, max));
+        }
+        assertEquals(entries.size() - 5000, tree.count(new Rectangle(-1, -1, 20_000, 20_000)));
+        assertEquals(entries.size() - 5000 + 1, tree.size());
+    }
+
+    @Test
+    public void hilbertTreeMatchesBruteForceSearch() {
+        List<RTreeEntry<Integer>> entries = randomEntries(20_000, 28);
+        HilbertRTree<Integer> tree = new HilbertRTree<>(16);
+        for (RTreeEntry<Integer> entry : entries) {
+            tree.insert(entry.getBounds(), entry.getValue());
+        }
+        assertEquals(entries.size(), tree.size());
+        Random random = new Random(29);
+        for (int i = 0; i < 200; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+            Set<Integer> expected = new HashSet<>();
+            for (RTreeEntry<Integer> entry : entries) {
+                if (area.intersects(entry.getBounds())) {
+                    expected.add(entry.getValue());
+                }
+            }
+            assertEquals(expected, new HashSet<>(tree.search(area)));
+        }
+        // 2-to-3 splitting keeps every node but the root at least two thirds full
+        RTreeStats stats = tree.stats();
+        assertTrue(stats.getAverageFill() > 0.66, "fill " + stats.getAverageFill());
+        assertEquals(entries.size(), stats.getSize());
+    }
+
+    @Test
+    public void batchInsertMatchesSequentialInsert() {
+        List<RTreeEntry<Integer>> entries = randomEntries(30_000, 30);
+        for (InsertionStrategy strategy : List.of(new QuadraticStrategy(), new LinearStrategy(), new RStarStrategy())) {
+            RTree<Integer> sequential = new RTree<>(2, 8, strategy);
+            RTree<Integer> batched = new RTree<>(2, 8, strategy);
+            Aggregator<Integer, Double> sum = Aggregator.sum(v -> v);
+            batched.addAggregator(sum);
+            // The first batch is bulk loaded into the empty tree, the rest are pushed down into it
+            for (int start = 0; start < entries.size(); start += 10_000) {
+                List<RTreeEntry<Integer>> batch = entries.subList(start, start + 10_000);
+                for (RTreeEntry<Integer> entry : batch) {
+                    sequential.insert(entry.getBounds(), entry.getValue());
+                }
+                batched.insertAll(batch);
+            }
+            batched.insertAll(List.of(new RTreeEntry<>(new Rectangle(1, 1, 1, 1), -1)));
+            sequential.insert(new Rectangle(1, 1, 1, 1), -1);
+            assertEquals(sequential.size(), batched.size());
+
+            Random random = new Random(31);
+            for (int i = 0; i < 200; i++) {
+                Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(2000), random.nextInt(2000));
+                List<Integer> results = batched.search(area);
+                assertEquals(new HashSet<>(sequential.search(area)), new HashSet<>(results));
+                assertEquals(results.size(), batched.count(area));
+                assertEquals(results.stream().mapToDouble(v -> v).sum(), batched.aggregate(area, sum));
+            }
+            for (int i = 0; i < 5000; i++) {
+                assertTrue(batched.delete(entries.get(i).getBounds(), entries.get(i).getValue()));
+            }
+            assertEquals(entries.size() + 1 - 5000, batched.size());
+        }
+    }
+
+    @Test
+    public void movingWindowTracksSearchResults() {
+        List<RTreeEntry<Integer>> entries = randomEntries(10_000, 32);
+        RTree<Integer> tree = RTree.bulkLoad(entries.subList(0, 8000), 2, 8, new QuadraticStrategy());
+        MovingWindow<Integer> window = new MovingWindow<>(tree, 4);
+        Random random = new Random(33);
+        Rectangle area = new Rectangle(1000, 1000, 1500, 1500);
+        List<Rectangle> visited = new ArrayList<>();
+        Set<Integer> current = new HashSet<>();
+        int inserted = 8000;
+        for (int i = 0; i < 500; i++) {
+            if (i % 50 == 49) {
+                RTreeEntry<Integer> entry = entries.get(inserted++);
+                tree.insert(entry.getBounds(), entry.getValue());
+                assertTrue(tree.delete(entries.get(i).getBounds(), entries.get(i).getValue()));
+            }
+            if (i % 7 == 0 && !visited.isEmpty()) {
+                // Go back to a recent window, which may still be cached
+                area = visited.get(random.nextInt(visited.size()));
+            } else {
+                area = new Rectangle(area.x + random.nextInt(201) - 100, area.y + random.nextInt(201) - 100,
+                        Math.max(0, area.width + random.nextInt(101) - 50), area.height);
+            }
+            visited.add(area);
+            if (visited.size() > 6) {
+                visited.remove(0);
+            }
+            Set<Integer> entered = new HashSet<>();
+            Set<Integer> left = new HashSet<>();
+            window.moveTo(area, entered::add, left::add);
+            Set<Integer> expected = new HashSet<>(tree.search(area));
+            for (int value : left) {
+                assertTrue(current.remove(value));
+            }
+            for (int value : entered) {
+                assertTrue(current.add(value));
+            }
+            assertEquals(expected, current);
+            assertEquals(expected, new HashSet<>(window.results()));
+            assertEquals(expected.size(), window.results().size());
+        }
+    }
+
+    @Test
+    public void tiledRenderingMatchesSingleImage() throws IOException {
+        RTree<Integer> tree = RTree.bulkLoad(randomEntries(20_000, 34), 2, 8, new QuadraticStrategy());
+        // Tiles that don't divide the image evenly, and an area that cuts through the tree
+        TreeRenderer renderer = new TreeRenderer(tree, 1000, 700, new Rectangle(-500, 2000, 8000, 6000), 256);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.writePng(out);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        BufferedImage expected = renderer.renderTile(0, 0, 1000, 700);
+        assertEquals(1000, image.getWidth());
+        assertEquals(700, image.getHeight());
+        for (int y = 0; y < 700; y++) {
+            for (int x = 0; x < 1000; x++) {
+                assertEquals(expected.getRGB(x, y), image.getRGB(x, y), "pixel " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    public void primitiveTreesMatchBruteForce() {
+        final long base = 1L << 40;
+        List<RTreeEntry<Integer>> entries = randomEntries(5000, 35);
+        LongRTree rects = new LongRTree(4, 16);
+        PointRTree points = new PointRTree(4, 16);
+        for (RTreeEntry<Integer> entry : entries) {
+            rects.insert(entry.getBounds(), base + entry.getValue());
+            points.insert(entry.getBounds().getLocation(), base + entry.getValue());
+        }
+        assertEquals(entries.size(), rects.size());
+        assertEquals(entries.size(), points.size());
+        Random random = new Random(36);
+        for (int i = 0; i < 100; i++) {
+            Rectangle area = new Rectangle(random.nextInt(10_000), random.nextInt(10_000), random.nextInt(1000), random.nextInt(1000));
+            Set<Long> expectedRects = new HashSet<>();
+            Set<Long> expectedPoints = new HashSet<>();
+            for (RTreeEntry<Integer> entry : entries) {
+                if (area.intersects(entry.getBounds())) {
+                    expectedRects.add(base + entry.getValue());
+                }
+                if (area.contains(entry.getBounds().getLocation())) {
+                    expectedPoints.add(base + entry.getValue());
+                }
+            }
+            assertEquals(expectedRects, LongStream.of(rects.search(area)).boxed().collect(Collectors.toSet()));
+            assertEquals(expectedRects.size(), rects.search(area).length);
+            assertEquals(expectedPoints, LongStream.of(points.search(area)).boxed().collect(Collectors.toSet()));
+            assertEquals(expectedPoints.size(), points.search(area).length);
+
+            Point p = new Point(random.nextInt(10_000), random.nextInt(10_000));
+            Rectangle query = new Rectangle(p.x, p.y, 0, 0);
+            List<Double> expectedDistances = entries.stream()
+                    .map(e -> RTree.minDistance(query, e.getBounds()))
+                    .sorted()
+                    .limit(10)
+                    .collect(Collectors.toList());
+            List<Double> actualDistances = new ArrayList<>();
+            rects.nearest(p, 10, id -> actualDistances.add(RTree.minDistance(query, entries.get((int) (id - base)).getBounds())));
+            assertEquals(expectedDistances, actualDistances);
+
+            List<Double> expectedPointDistances = entries.stream()
+                    .map(e -> p.distance(e.getBounds().getLocation()))
+                    .filter(d -> d <= 500)
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<Double> actualPointDistances = new ArrayList<>();
+            points.nearest(query, Integer.MAX_VALUE, 500, id -> actualPointDistances.add(p.distance(entries.get((int) (id - base)).getBounds().getLocation())));
+            assertEquals(expectedPointDistances, actualPointDistances);
+        }
+        assertEquals(rects.getBounds(), entries.stream().map(RTreeEntry::getBounds).reduce(Rectangle::union).get());
+        assertEquals(points.getBounds(), entries.stream().map(e -> new Rectangle(e.getBounds().getLocation(), new Dimension(1, 1))).reduce(Rectangle::union).get());
+
+        // Far edges past Integer.MAX_VALUE used to wrap around and hide entries near it
+        rects.insert(new Rectangle(Integer.MAX_VALUE - 5, 0, 2, 2), -1);
+        rects.insert(new Rectangle(Integer.MAX_VALUE - 3, 0, 100, 2), -2);
+        assertEquals(Set.of(-1L, -2L), LongStream.of(rects.search(new Rectangle(Integer.MAX_VALUE - 10, 0, 100, 100))).boxed().collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void splitSeedsSurviveLargeCoordinates() {
+        // Two pairs of entries at opposite ends of the int plane, further apart than an int can measure
+        List<Rectangle> bounds = List.of(
+                new Rectangle(-2_000_000_000, 0, 10, 10), new Rectangle(-1_999_999_000, 0, 10, 10),
+                new Rectangle(1_999_999_000, 0, 10, 10), new Rectangle(2_000_000_000, 0, 10, 10));
+        for (InsertionStrategy strategy : List.of(new QuadraticStrategy(), new LinearStrategy())) {
+            boolean[] second = strategy.split(bounds, 2);
+            assertEquals(second[0], second[1]);
+            assertEquals(second[2], second[3]);
+            assertTrue(second[0] != second[2]);
+        }
+    }
+
 }